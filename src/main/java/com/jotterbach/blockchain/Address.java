@@ -0,0 +1,138 @@
+package com.jotterbach.blockchain;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Interned form of an RSA public key as it appears in transaction outputs. There is one instance
+ * per distinct key, carrying the key's raw encoding (public exponent followed by modulus, as written
+ * by {@link Transaction#getRawTx()}), its SHA-256 hash and a small numeric id, all computed once.
+ * The intern tables only hold addresses weakly: an address is released once no output refers to
+ * it any more, and a key interned again after that gets a new instance with a new id.
+ */
+public final class Address {
+
+    /** fast path for key instances seen before */
+    private static final ConcurrentMap<PublicKey, Ref> BY_KEY = new ConcurrentHashMap<>();
+    /** makes different key objects with the same exponent and modulus share one address */
+    private static final ConcurrentMap<ByteArrayWrapper, Ref> BY_ENCODING = new ConcurrentHashMap<>();
+    /** references to released addresses, whose entries are yet to be removed */
+    private static final ReferenceQueue<Address> RELEASED = new ReferenceQueue<>();
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    private final PublicKey key;
+    private final byte[] encoded;
+    private final byte[] hash;
+    private final int id;
+    private final int hashCode;
+
+    private Address(PublicKey key, byte[] encoded) {
+        this.key = key;
+        this.encoded = encoded;
+        // not Crypto.sha256(): keys get interned while encoding a transaction into that digest
+        try {
+            this.hash = MessageDigest.getInstance("SHA-256").digest(encoded);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        this.id = NEXT_ID.getAndIncrement();
+        this.hashCode = Arrays.hashCode(encoded);
+    }
+
+    /** @return the address of {@code key}, which must be an {@code RSAPublicKey} */
+    public static Address of(PublicKey key) {
+        purge();
+        Address address = get(BY_KEY.get(key));
+        if (address != null)
+            return address;
+        RSAPublicKey rsa = (RSAPublicKey) key;
+        BigInteger exponent = rsa.getPublicExponent();
+        BigInteger modulus = rsa.getModulus();
+        byte[] encoded = new byte[TxEncoder.sizeOf(exponent) + TxEncoder.sizeOf(modulus)];
+        byte[] e = exponent.toByteArray();
+        System.arraycopy(e, 0, encoded, 0, e.length);
+        byte[] m = modulus.toByteArray();
+        System.arraycopy(m, 0, encoded, e.length, m.length);
+        ByteArrayWrapper wrapped = new ByteArrayWrapper(encoded);
+        while (true) {
+            Ref ref = BY_ENCODING.get(wrapped);
+            address = get(ref);
+            if (address != null)
+                break;
+            Address fresh = new Address(key, encoded);
+            Ref freshRef = new Ref(fresh, BY_ENCODING, wrapped);
+            if (ref == null ? BY_ENCODING.putIfAbsent(wrapped, freshRef) == null
+                    : BY_ENCODING.replace(wrapped, ref, freshRef)) {
+                address = fresh;
+                break;
+            }
+        }
+        BY_KEY.put(key, new Ref(address, BY_KEY, key));
+        return address;
+    }
+
+    private static Address get(Ref ref) {
+        return ref == null ? null : ref.get();
+    }
+
+    /** Removes the entries of released addresses */
+    private static void purge() {
+        for (Ref ref; (ref = (Ref) RELEASED.poll()) != null; )
+            ref.table.remove(ref.entry, ref);
+    }
+
+    /** Entry of an intern table, which knows its key so that it can be removed once released */
+    private static final class Ref extends WeakReference<Address> {
+        final ConcurrentMap<?, Ref> table;
+        final Object entry;
+
+        Ref(Address address, ConcurrentMap<?, Ref> table, Object entry) {
+            super(address, RELEASED);
+            this.table = table;
+            this.entry = entry;
+        }
+    }
+
+    /** @return the key this address was first interned with */
+    public PublicKey getKey() {
+        return key;
+    }
+
+    /** @return a number unique to this address within the running process */
+    public int getId() {
+        return id;
+    }
+
+    /** @return the SHA-256 hash of the raw encoding of the key */
+    public byte[] getHash() {
+        return hash.clone();
+    }
+
+    /** @return the number of bytes {@link #encode} writes */
+    int encodedLength() {
+        return encoded.length;
+    }
+
+    /** Writes the public exponent and modulus of the key, as cached at interning */
+    void encode(TxEncoder enc) {
+        enc.putBytes(encoded);
+    }
+
+    /** Interned, so equal keys always share one instance */
+    public boolean equals(Object other) {
+        return this == other;
+    }
+
+    public int hashCode() {
+        return hashCode;
+    }
+}
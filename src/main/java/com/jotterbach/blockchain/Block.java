@@ -1,9 +1,10 @@
 package com.jotterbach.blockchain;
 
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.util.ArrayList;
+import java.util.List;
 
 public class Block {
 
@@ -13,6 +14,14 @@ public class Block {
     private byte[] prevBlockHash;
     private Transaction coinbase;
     private ArrayList<Transaction> txs;
+    /*
+     * Merkle root and tree, built lazily and guarded by the lock of the block: blocks read back
+     * from storage get them on first use, which may come from several threads at once.
+     */
+    /** Merkle root over the first {@code merkle.size()} transactions, extended on demand */
+    private final Merkle.Accumulator merkle = new Merkle.Accumulator();
+    /** the full tree, built for the first proof and rebuilt when transactions were added since */
+    private Merkle.Tree merkleTree;
 
     /** {@code address} is the address to which the coinbase transaction would go */
     public Block(byte[] prevHash, PublicKey address) {
@@ -29,46 +38,103 @@ public class Block {
         return hash;
     }
 
+    /** restores the hash of a block read back from storage without rehashing it */
+    void setHash(byte[] h) {
+        hash = h;
+    }
+
     public byte[] getPrevBlockHash() {
         return prevBlockHash;
     }
 
-    public ArrayList<Transaction> getTransactions() {
-        return txs;
+    /** @return a copy of the transactions; they are only ever added through {@link #addTransaction} */
+    public synchronized ArrayList<Transaction> getTransactions() {
+        return new ArrayList<Transaction>(txs);
     }
 
-    public Transaction getTransaction(int index) {
+    public synchronized Transaction getTransaction(int index) {
         return txs.get(index);
     }
 
-    public void addTransaction(Transaction tx) {
+    public synchronized void addTransaction(Transaction tx) {
         txs.add(tx);
     }
 
-    public byte[] getRawBlock() {
-        ArrayList<Byte> rawBlock = new ArrayList<Byte>();
+    public synchronized byte[] getRawBlock() {
+        int size = prevBlockHash == null ? 0 : prevBlockHash.length;
+        for (Transaction tx : txs)
+            size += tx.getRawTxSize();
+        ByteBuffer rawBlock = ByteBuffer.allocate(size);
         if (prevBlockHash != null)
-            for (int i = 0; i < prevBlockHash.length; i++)
-                rawBlock.add(prevBlockHash[i]);
-        for (int i = 0; i < txs.size(); i++) {
-            byte[] rawTx = txs.get(i).getRawTx();
-            for (int j = 0; j < rawTx.length; j++) {
-                rawBlock.add(rawTx[j]);
-            }
+            rawBlock.put(prevBlockHash);
+        for (Transaction tx : txs)
+            tx.writeRawTx(rawBlock);
+        return rawBlock.array();
+    }
+
+    /**
+     * @return the Merkle root over the hashes of the raw transactions of this block, in order. The
+     *         coinbase is not part of it. Transactions must not change once they are added.
+     */
+    public synchronized byte[] getMerkleRoot() {
+        for (int i = merkle.size(); i < txs.size(); i++)
+            merkle.add(leaf(txs.get(i)));
+        return merkle.root().clone();
+    }
+
+    /**
+     * @return a proof that the transaction with hash {@code txHash} is in this block, or null if it
+     *         is not. The Merkle tree is built once and kept for further proofs.
+     */
+    public synchronized MerkleProof getMerkleProof(byte[] txHash) {
+        Merkle.Tree tree = merkleTree;
+        if (tree == null || tree.size() != txs.size()) {
+            List<byte[]> leaves = new ArrayList<>(txs.size());
+            for (Transaction tx : txs)
+                leaves.add(leaf(tx));
+            tree = new Merkle.Tree(leaves);
+            merkleTree = tree;
         }
-        byte[] raw = new byte[rawBlock.size()];
-        for (int i = 0; i < raw.length; i++)
-            raw[i] = rawBlock.get(i);
-        return raw;
+        int index = tree.indexOf(Merkle.leaf(txHash));
+        if (index < 0)
+            return null;
+        return new MerkleProof(txHash, index, tree.size(), tree.path(index));
     }
 
+    /**
+     * @return true if {@code proof} shows a transaction to be in this block; it must be for a tree
+     *         of as many leaves as this block has transactions
+     */
+    public synchronized boolean verifyMerkleProof(MerkleProof proof) {
+        return proof.getLeafCount() == txs.size() && proof.verify(getMerkleRoot());
+    }
+
+    /**
+     * @return the header the block hash is computed over: the hash of the previous block (all
+     *         zeros for a genesis block) followed by the Merkle root
+     */
+    public byte[] getHeader() {
+        byte[] prev = prevBlockHash == null ? Merkle.EMPTY_ROOT : prevBlockHash;
+        return ByteBuffer.allocate(prev.length + Merkle.HASH_LENGTH)
+                .put(prev)
+                .put(getMerkleRoot())
+                .array();
+    }
+
+    /** Hashes the header, so the cost does not depend on the size of the transactions */
     public void finalize() {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            md.update(getRawBlock());
-            hash = md.digest();
-        } catch (NoSuchAlgorithmException x) {
-            x.printStackTrace(System.err);
-        }
+        byte[] header = getHeader();
+        MessageDigest md = Crypto.sha256();
+        md.update(header);
+        hash = md.digest();
+    }
+
+    /**
+     * @return the Merkle leaf of {@code tx}, over the hash of its raw form, which is the hash
+     *         finalize() gives it. A hash set by other means is not trusted, so the root commits to
+     *         content.
+     */
+    static byte[] leaf(Transaction tx) {
+        return Merkle.leaf(tx.rawTxHash());
     }
 }
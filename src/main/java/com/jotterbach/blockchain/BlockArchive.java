@@ -0,0 +1,13 @@
+package com.jotterbach.blockchain;
+
+/** Receives the blocks {@link BlockChain} evicts once they fall behind its {@code CUT_OFF_AGE} window */
+public interface BlockArchive {
+
+    /** archive {@code block}, which was at height {@code height} of the block chain */
+    void archive(Block block, int height);
+
+    /** @return the archived block with hash {@code hash}, or null if it cannot be read back */
+    default Block get(byte[] hash) {
+        return null;
+    }
+}
@@ -2,9 +2,10 @@ package com.jotterbach.blockchain;// Block Chain should maintain only limited bl
 // You should not have all the blocks added to the block chain in memory 
 // as it would cause a memory overflow.
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
 public class BlockChain {
     public static final int CUT_OFF_AGE = 10;
@@ -16,12 +17,13 @@ public class BlockChain {
         private int height;
         private int age;
 
-        private UTXOPool utxoPool;
+        /** what this block changed in the UTXO set of its parent */
+        private BlockUndo undo;
 
-        public BlockNode(Block b, BlockNode parent, UTXOPool utxoPool, int age) {
+        public BlockNode(Block b, BlockNode parent, BlockUndo undo, int age) {
             this.b = b;
             this.parent = parent;
-            this.utxoPool = utxoPool;
+            this.undo = undo;
             this.age = age;
 
             // handle genesis block
@@ -33,10 +35,6 @@ public class BlockChain {
             }
         }
 
-        public UTXOPool getUtxoPoolCopy() {
-            return new UTXOPool(utxoPool);
-        }
-
         public int getAge() {
             return age;
         }
@@ -47,46 +45,204 @@ public class BlockChain {
     }
 
     private Map<ByteArrayWrapper, BlockNode> blockChain = new HashMap<>();
+    /** all nodes bucketed by height, in insertion (i.e. age) order */
+    private Map<Integer, List<BlockNode>> nodesByHeight = new HashMap<>();
+    /** no bucket below this height holds a node any more */
+    private int lowestHeight = 1;
+    /** the oldest node at the greatest height, kept up to date on every insert */
+    private BlockNode maxHeightNode;
+    private BlockArchive archive;
     private TransactionPool txPool = new TransactionPool();
     private static AtomicInteger age = new AtomicInteger(0);
 
+    /**
+     * The only UTXO set kept in memory; it reflects the chain ending in {@code utxoNode}. Reading
+     * the state of another node rolls it back to the fork point and replays the other branch using
+     * the undo records of the nodes in between.
+     */
+    private UTXOPool utxoPool = new UTXOPool();
+    private BlockNode utxoNode;
+    /** serializes snapshot writers, which share a temporary file, without holding the chain lock */
+    private final Object snapshotLock = new Object();
+
     /**
      * create an empty block chain with just a genesis block. Assume {@code genesisBlock} is a valid
      * block
      */
     public BlockChain(Block genesisBlock) {
-        UTXOPool uPool = getUtxoPoolFromCoinbase(genesisBlock);
-        BlockNode bn = new BlockNode(genesisBlock, null, uPool, age.incrementAndGet());
-        this.blockChain.put(wrapper(genesisBlock.getHash()), bn);
+        this(genesisBlock, null);
+    }
+
+    /** Same as {@link #BlockChain(Block)}, but hands every pruned block to {@code archive} */
+    public BlockChain(Block genesisBlock, BlockArchive archive) {
+        this.archive = archive;
+        BlockUndo undo = BlockUndo.of(genesisBlock, utxoPool);
+        BlockNode bn = new BlockNode(genesisBlock, null, undo, age.incrementAndGet());
+        undo.apply(utxoPool);
+        utxoNode = bn;
+        addNode(bn);
+    }
+
+    /**
+     * Restores a block chain from a snapshot written by {@link #writeSnapshot}. The blocks of the
+     * snapshot are connected without checking their transactions again; blocks received after it
+     * are added through {@link #addBlock} as usual.
+     */
+    public static BlockChain fromSnapshot(Path file, BlockArchive archive) throws IOException {
+        return new BlockChain(ChainSnapshot.read(file), archive);
+    }
+
+    private BlockChain(ChainSnapshot snapshot, BlockArchive archive) {
+        this.archive = archive;
+        utxoPool = snapshot.getUtxoPool();
+        BlockNode root = new BlockNode(snapshot.getRoot(), null, null, age.incrementAndGet());
+        root.height = snapshot.getRootHeight();
+        lowestHeight = root.height;
+        utxoNode = root;
+        addNode(root);
+        for (Block block : snapshot.getBlocks()) {
+            BlockNode parent = blockChain.get(wrapper(block.getPrevBlockHash()));
+            moveUtxoPoolTo(parent);
+            connect(block, parent);
+        }
+    }
+
+    /**
+     * Writes a checkpoint of this block chain to {@code file}: the UTXO set at the oldest node still
+     * held and all blocks above it. Only taking the checkpoint holds the lock of the chain; the copy
+     * of the UTXO set takes constant time and the blocks never change, so the file is written
+     * while blocks and transactions keep coming in.
+     */
+    public void writeSnapshot(Path file) throws IOException {
+        ChainSnapshot snapshot;
+        synchronized (this) {
+            BlockNode root = nodesByHeight.get(lowestHeight).get(0);
+            moveUtxoPoolTo(root);
+            snapshot = new ChainSnapshot(root.b, root.height, new UTXOPool(utxoPool));
+            List<BlockNode> window = new ArrayList<>(blockChain.values());
+            window.remove(root);
+            window.sort(Comparator.comparingInt(BlockNode::getAge));
+            for (BlockNode bn : window) {
+                snapshot.addBlock(bn.b);
+            }
+        }
+        synchronized (snapshotLock) {
+            snapshot.write(file);
+        }
     }
 
     private BlockNode getMaxHeightNode() {
-        Map<Integer, List<BlockNode>> groupedBlockNodes = blockChain.values().stream()
-                .collect(Collectors.groupingBy(BlockNode::getHeight, Collectors.toList()));
+        return maxHeightNode;
+    }
 
-        int max_height = Collections.max(groupedBlockNodes.keySet());
+    private void addNode(BlockNode bn) {
+        blockChain.put(wrapper(bn.b.getHash()), bn);
+        nodesByHeight.computeIfAbsent(bn.height, h -> new ArrayList<>()).add(bn);
+        // ages only grow, so on equal height the current tip stays the oldest
+        if (maxHeightNode == null || bn.height > maxHeightNode.height) {
+            maxHeightNode = bn;
+            prune();
+        }
+    }
 
-        List<BlockNode> maxHeightNodes = groupedBlockNodes.get(max_height);
-        BlockNode oldestNode = maxHeightNodes.get(0);
+    /**
+     * Evicts the nodes that can no longer matter: no block may be added below
+     * {@code maxHeight - CUT_OFF_AGE}, so only nodes from that height up are kept, together with
+     * their ancestors down to the point where all of them fork off. The UTXO set never has to be
+     * rolled back past that point.
+     */
+    private void prune() {
+        int cutoff = maxHeightNode.height - CUT_OFF_AGE;
+        if (cutoff <= lowestHeight) {
+            return;
+        }
+        Set<BlockNode> ancestors = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<BlockNode> frontier = nodesByHeight.get(cutoff);
+        while (frontier.size() > 1) {
+            List<BlockNode> parents = new ArrayList<>();
+            for (BlockNode bn : frontier) {
+                if (ancestors.add(bn.parent)) {
+                    parents.add(bn.parent);
+                }
+            }
+            frontier = parents;
+        }
+        BlockNode forkPoint = frontier.get(0);
 
-        for (BlockNode bn : maxHeightNodes) {
-            if (bn.getAge() < oldestNode.getAge()) {
-                oldestNode = bn;
+        for (int h = lowestHeight; h < cutoff; h++) {
+            List<BlockNode> bucket = nodesByHeight.get(h);
+            bucket.removeIf(bn -> {
+                if (ancestors.contains(bn)) {
+                    return false;
+                }
+                evict(bn);
+                return true;
+            });
+            if (bucket.isEmpty()) {
+                nodesByHeight.remove(h);
             }
         }
-        return oldestNode;
+        forkPoint.parent = null;
+        forkPoint.undo = null;
+        lowestHeight = forkPoint.height;
+    }
+
+    private void evict(BlockNode bn) {
+        blockChain.remove(wrapper(bn.b.getHash()));
+        if (bn.parent != null) {
+            bn.parent.children.remove(bn);
+        }
+        if (archive != null) {
+            archive.archive(bn.b, bn.height);
+        }
     }
+
+    /** @return the number of blocks currently held in memory */
+    public synchronized int getNumBlocks() {
+        return blockChain.size();
+    }
+    /**
+     * Get the block with hash {@code hash}, paging it back in from the archive if it has already
+     * been pruned; null if it is unknown.
+     */
+    public synchronized Block getBlock(byte[] hash) {
+        BlockNode bn = blockChain.get(wrapper(hash));
+        if (bn != null) {
+            return bn.b;
+        }
+        return archive == null ? null : archive.get(hash);
+    }
+
+    /**
+     * @return a proof that the transaction {@code txHash} is in the block {@code blockHash}, or
+     *         null if the block is unknown or does not contain it
+     */
+    public MerkleProof getMerkleProof(byte[] blockHash, byte[] txHash) {
+        Block block = getBlock(blockHash);
+        return block == null ? null : block.getMerkleProof(txHash);
+    }
+
+    /**
+     * @return true if the block {@code blockHash} was accepted by this chain and {@code proof}
+     *         shows a transaction to be in it
+     */
+    public boolean verifyMerkleProof(byte[] blockHash, MerkleProof proof) {
+        Block block = getBlock(blockHash);
+        return block != null && block.verifyMerkleProof(proof);
+    }
+
     /** Get the maximum height block */
-    public Block getMaxHeightBlock() {
+    public synchronized Block getMaxHeightBlock() {
         return getMaxHeightNode().b;
     }
 
     /** Get the UTXOPool for mining a new block on top of max height block */
-    public UTXOPool getMaxHeightUTXOPool() {
-        return getMaxHeightNode().utxoPool;
+    public synchronized UTXOPool getMaxHeightUTXOPool() {
+        moveUtxoPoolTo(getMaxHeightNode());
+        return new UTXOPool(utxoPool);
     }
 
-    /** Get the transaction pool to mine a new block */
+    /** Get the transaction pool to mine a new block; it is safe to use from any thread */
     public TransactionPool getTransactionPool() {
         return txPool;
     }
@@ -101,9 +257,12 @@ public class BlockChain {
      * CUT_OFF_AGE + 1}. As soon as {@code height > CUT_OFF_AGE + 1}, you cannot create a new block
      * at height 2.
      * 
+     * <p>
+     * The transactions of an accepted block leave the transaction pool.
+     *
      * @return true if block is successfully added
      */
-    public boolean addBlock(Block block) {
+    public synchronized boolean addBlock(Block block) {
         if (block.getPrevBlockHash() == null) {
             return false;
         }
@@ -113,23 +272,67 @@ public class BlockChain {
         if (!isWithinCutoff(block)) {
             return false;
         }
+        BlockNode parent = blockChain.get(wrapper(block.getPrevBlockHash()));
+        moveUtxoPoolTo(parent);
         if (!allTransactionsValid(block)) {
             return false;
         }
-        UTXOPool utxoPool = getUtxoPoolFromCoinbase(block);
-        BlockNode maxHeightNode = getMaxHeightNode();
-        BlockNode bn = new BlockNode(block, maxHeightNode, utxoPool, age.incrementAndGet());
-        blockChain.put(wrapper(block.getHash()), bn);
+        connect(block, parent);
+        txPool.removeTransactions(block.getTransactions());
         return true;
 
     }
 
+    /** Adds {@code block} below {@code parent}, whose UTXO set must be the current one */
+    private void connect(Block block, BlockNode parent) {
+        BlockUndo undo = BlockUndo.of(block, utxoPool);
+        BlockNode bn = new BlockNode(block, parent, undo, age.incrementAndGet());
+        undo.apply(utxoPool);
+        utxoNode = bn;
+        addNode(bn);
+    }
+
+    /**
+     * Checks the transactions of {@code b} against the current UTXO set, which must be its parent's.
+     * They must also come in an order they can be applied in, i.e. one the handler keeps as is.
+     */
     private boolean allTransactionsValid(Block b) {
-        BlockNode parentBlock = blockChain.get(wrapper(b.getPrevBlockHash()));
-        TxHandler txHandler = new TxHandler(parentBlock.getUtxoPoolCopy());
+        TxHandler txHandler = new TxHandler(utxoPool);
         Transaction[] allTxn = b.getTransactions().toArray(new Transaction[0]);
         Transaction[] validTxn = txHandler.handleTxs(allTxn);
-        return validTxn.length == allTxn.length;
+        if (validTxn.length != allTxn.length)
+            return false;
+        for (int i = 0; i < allTxn.length; i++)
+            if (validTxn[i] != allTxn[i])
+                return false;
+        return true;
+    }
+
+    /**
+     * Rolls the UTXO set back from {@code utxoNode} to the common ancestor with {@code target} and
+     * replays the blocks from there up to {@code target}.
+     */
+    private void moveUtxoPoolTo(BlockNode target) {
+        BlockNode from = utxoNode;
+        BlockNode to = target;
+        Deque<BlockNode> replay = new ArrayDeque<>();
+        while (from.height > to.height) {
+            from.undo.rollback(utxoPool);
+            from = from.parent;
+        }
+        while (to.height > from.height) {
+            replay.push(to);
+            to = to.parent;
+        }
+        while (from != to) {
+            from.undo.rollback(utxoPool);
+            from = from.parent;
+            replay.push(to);
+            to = to.parent;
+        }
+        while (!replay.isEmpty())
+            replay.pop().undo.apply(utxoPool);
+        utxoNode = target;
     }
 
     private boolean isGenesisBlock(Block b) {
@@ -142,20 +345,17 @@ public class BlockChain {
         return parentBlock.height + 1 > getMaxHeightNode().height - CUT_OFF_AGE;
     }
 
-    /** Add a transaction to the transaction pool */
+    /**
+     * Add a transaction to the transaction pool, pricing its inputs against the max height UTXO set.
+     * Only the pricing holds the lock of the chain; the pool takes concurrent inserts.
+     */
     public void addTransaction(Transaction tx) {
-        txPool.addTransaction(tx);
-    }
-
-    private UTXOPool getUtxoPoolFromCoinbase(Block b) {
-        UTXOPool uPool = new UTXOPool();
-        Transaction coinbase = b.getCoinbase();
-        for (int i = 0; i < coinbase.numOutputs(); i++) {
-            Transaction.Output output = coinbase.getOutput(i);
-            UTXO utxo = new UTXO(coinbase.getHash(), i);
-            uPool.addUTXO(utxo, output);
+        double fee;
+        synchronized (this) {
+            moveUtxoPoolTo(getMaxHeightNode());
+            fee = txPool.fee(tx, utxoPool);
         }
-        return uPool;
+        txPool.addTransaction(tx, fee);
     }
 
     private ByteArrayWrapper wrapper(byte[] arr) {
@@ -0,0 +1,114 @@
+package com.jotterbach.blockchain;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary serialization of a {@link Block} for storage. Public keys are written in their X.509
+ * encoding; byte arrays are length prefixed with -1 standing for null. The coinbase is stored only
+ * by its address, since a {@code Block} always recreates it from that.
+ */
+final class BlockCodec {
+
+    private BlockCodec() {
+    }
+
+    static byte[] encode(Block b) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeBytes(out, b.getHash());
+            writeBytes(out, b.getPrevBlockHash());
+            writeBytes(out, b.getCoinbase().getOutput(0).address.getEncoded());
+            out.writeInt(b.getTransactions().size());
+            for (Transaction tx : b.getTransactions()) {
+                writeBytes(out, tx.getHash());
+                out.writeInt(tx.numInputs());
+                for (Transaction.Input in : tx.getInputs()) {
+                    writeBytes(out, in.prevTxHash);
+                    out.writeInt(in.outputIndex);
+                    writeBytes(out, in.getSignature());
+                }
+                out.writeInt(tx.numOutputs());
+                for (Transaction.Output op : tx.getOutputs()) {
+                    out.writeDouble(op.value);
+                    writeBytes(out, op.address.getEncoded());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Decodes a block starting at the current position of {@code in}, advancing past it */
+    static Block decode(ByteBuffer in) {
+        Map<ByteArrayWrapper, PublicKey> keys = new HashMap<>();
+        byte[] hash = readBytes(in);
+        byte[] prevHash = readBytes(in);
+        Block b = new Block(prevHash, readKey(in, keys));
+        int numTxs = in.getInt();
+        for (int t = 0; t < numTxs; t++) {
+            Transaction tx = new Transaction();
+            byte[] txHash = readBytes(in);
+            int numInputs = in.getInt();
+            for (int i = 0; i < numInputs; i++) {
+                tx.addInput(readBytes(in), in.getInt());
+                tx.addSignature(readBytes(in), i);
+            }
+            int numOutputs = in.getInt();
+            for (int i = 0; i < numOutputs; i++)
+                tx.addOutput(in.getDouble(), readKey(in, keys));
+            tx.setHash(txHash);
+            b.addTransaction(tx);
+        }
+        b.setHash(hash);
+        return b;
+    }
+
+    /** @return the hash of the encoded block starting at the current position of {@code in} */
+    static byte[] peekHash(ByteBuffer in) {
+        return readBytes(in.duplicate());
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] b) throws IOException {
+        if (b == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0)
+            return null;
+        byte[] b = new byte[length];
+        in.get(b);
+        return b;
+    }
+
+    private static PublicKey readKey(ByteBuffer in, Map<ByteArrayWrapper, PublicKey> keys) {
+        byte[] encoded = readBytes(in);
+        return keys.computeIfAbsent(new ByteArrayWrapper(encoded), k -> decodeKey(encoded));
+    }
+
+    /** @return the RSA public key with X.509 encoding {@code encoded} */
+    static PublicKey decodeKey(byte[] encoded) {
+        try {
+            return KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(encoded));
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            throw new IllegalArgumentException("stored key is not an RSA public key", e);
+        }
+    }
+}
@@ -3,11 +3,24 @@ package com.jotterbach.blockchain;
 import java.security.PublicKey;
 
 public class BlockHandler {
+    /** the most pooled transactions, best fee rate first, that a new block is built from */
+    public static final int DEFAULT_MAX_BLOCK_TRANSACTIONS = 2000;
+
     private BlockChain blockChain;
+    private final int maxBlockTransactions;
 
     /** assume blockChain has the genesis block */
     public BlockHandler(BlockChain blockChain) {
+        this(blockChain, DEFAULT_MAX_BLOCK_TRANSACTIONS);
+    }
+
+    /**
+     * Same as {@link #BlockHandler(BlockChain)}, building blocks from at most
+     * {@code maxBlockTransactions} candidates
+     */
+    public BlockHandler(BlockChain blockChain, int maxBlockTransactions) {
         this.blockChain = blockChain;
+        this.maxBlockTransactions = maxBlockTransactions;
     }
 
     /**
@@ -21,15 +34,19 @@ public class BlockHandler {
         return blockChain.addBlock(block);
     }
 
-    /** create a new {@code block} over the max height {@code block} */
+    /**
+     * create a new {@code block} over the max height {@code block}, with the pooled transactions
+     * paying the most fees that {@link MaxFeeTxHandler} finds among the best
+     * {@code maxBlockTransactions} by fee rate; the rest of the pool is never sorted out
+     */
     public Block createBlock(PublicKey myAddress) {
         Block parent = blockChain.getMaxHeightBlock();
         byte[] parentHash = parent.getHash();
         Block current = new Block(parentHash, myAddress);
         UTXOPool uPool = blockChain.getMaxHeightUTXOPool();
         TransactionPool txPool = blockChain.getTransactionPool();
-        TxHandler handler = new TxHandler(uPool);
-        Transaction[] txs = txPool.getTransactions().toArray(new Transaction[0]);
+        MaxFeeTxHandler handler = new MaxFeeTxHandler(uPool);
+        Transaction[] txs = txPool.getBestTransactions(maxBlockTransactions).toArray(new Transaction[0]);
         Transaction[] rTxs = handler.handleTxs(txs);
         for (int i = 0; i < rTxs.length; i++)
             current.addTransaction(rTxs[i]);
@@ -0,0 +1,202 @@
+package com.jotterbach.blockchain;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only block store on the local file system. Blocks are appended to rolling segment files
+ * {@code blocks-NNNNN.dat} as records of
+ *
+ * <pre>
+ *   int length | int height | {@link BlockCodec} encoding of length bytes
+ * </pre>
+ *
+ * and located through an in-memory index from block hash to segment and offset, which is rebuilt
+ * by scanning the segments on open. Reads go through a {@code MappedByteBuffer} of the segment, so
+ * {@link #getRaw} hands out the stored bytes without copying them.
+ */
+public class BlockStore implements BlockArchive, Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    private final Path dir;
+    private final int segmentSize;
+    private final List<Segment> segments = new ArrayList<>();
+    /** block hash to {@code segment << 32 | offset} of its record */
+    private final Map<ByteArrayWrapper, Long> index = new HashMap<>();
+
+    public BlockStore(Path dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /** Opens the store in {@code dir}, creating it if needed, rolling segments at {@code segmentSize} bytes */
+    public BlockStore(Path dir, int segmentSize) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(dir);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "blocks-*.dat")) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+        for (Path file : files)
+            load(file);
+    }
+
+    /** Stores {@code block}, at height {@code height}, unless a block with its hash is already stored */
+    public synchronized void put(Block block, int height) throws IOException {
+        ByteArrayWrapper key = new ByteArrayWrapper(block.getHash());
+        if (index.containsKey(key))
+            return;
+        byte[] encoded = BlockCodec.encode(block);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + encoded.length);
+        record.putInt(encoded.length).putInt(height).put(encoded).flip();
+
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || (segment.size > 0 && segment.size + record.remaining() > segmentSize)) {
+            segment = new Segment(dir.resolve(String.format("blocks-%05d.dat", segments.size())));
+            segments.add(segment);
+        }
+        long offset = segment.size;
+        while (record.hasRemaining())
+            segment.channel.write(record, segment.size + record.position());
+        segment.size += record.limit();
+        index.put(key, location(segments.size() - 1, offset));
+    }
+
+    /** Archives evicted blocks by appending them to the store */
+    public void archive(Block block, int height) {
+        try {
+            put(block, height);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** @return the block with hash {@code hash}, or null if it is not stored */
+    public Block get(byte[] hash) {
+        ByteBuffer raw = getRaw(hash);
+        return raw == null ? null : BlockCodec.decode(raw);
+    }
+
+    /**
+     * @return a read-only view of the encoded block with hash {@code hash} inside the mapped
+     *         segment, or null if it is not stored
+     */
+    public synchronized ByteBuffer getRaw(byte[] hash) {
+        ByteBuffer record = record(hash);
+        if (record == null)
+            return null;
+        int length = record.getInt();
+        record.position(record.position() + Integer.BYTES);
+        record.limit(record.position() + length);
+        return record.slice();
+    }
+
+    /** @return the height the block with hash {@code hash} was stored at, or -1 if it is not stored */
+    public synchronized int getHeight(byte[] hash) {
+        ByteBuffer record = record(hash);
+        return record == null ? -1 : record.getInt(record.position() + Integer.BYTES);
+    }
+
+    public synchronized boolean contains(byte[] hash) {
+        return index.containsKey(new ByteArrayWrapper(hash));
+    }
+
+    /** @return the number of stored blocks */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /** Forces all appended blocks to disk */
+    public synchronized void flush() throws IOException {
+        for (Segment segment : segments)
+            segment.channel.force(false);
+    }
+
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments)
+            segment.channel.close();
+        segments.clear();
+        index.clear();
+    }
+
+    /** @return a read-only buffer positioned at the record of {@code hash}, or null */
+    private ByteBuffer record(byte[] hash) {
+        Long location = index.get(new ByteArrayWrapper(hash));
+        if (location == null)
+            return null;
+        Segment segment = segments.get((int) (location >>> 32));
+        int offset = (int) (long) location;
+        try {
+            int end = offset + HEADER_SIZE + segment.mapped(offset + HEADER_SIZE).getInt(offset);
+            ByteBuffer view = segment.mapped(end).duplicate();
+            view.limit(end);
+            view.position(offset);
+            return view;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Indexes all complete records of {@code file}, cutting off a record left half-written */
+    private void load(Path file) throws IOException {
+        Segment segment = new Segment(file);
+        segment.size = segment.channel.size();
+        segments.add(segment);
+        ByteBuffer data = segment.mapped(segment.size);
+        int offset = 0;
+        while (offset + HEADER_SIZE <= data.limit()) {
+            int length = data.getInt(offset);
+            if (length < 0 || offset + HEADER_SIZE + length > data.limit())
+                break;
+            data.position(offset + HEADER_SIZE);
+            index.put(new ByteArrayWrapper(BlockCodec.peekHash(data)), location(segments.size() - 1, offset));
+            offset += HEADER_SIZE + length;
+        }
+        if (offset < segment.size) {
+            segment.channel.truncate(offset);
+            segment.size = offset;
+        }
+    }
+
+    private static long location(int segment, long offset) {
+        return (long) segment << 32 | offset;
+    }
+
+    private static class Segment {
+        final FileChannel channel;
+        long size;
+        private MappedByteBuffer map;
+
+        Segment(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+
+        /**
+         * @return a mapping covering at least the first {@code end} bytes. Only a read past the
+         *         current mapping, i.e. of a record appended since, maps the segment again, up to
+         *         everything appended so far; mapping past the end would grow the file.
+         */
+        MappedByteBuffer mapped(long end) throws IOException {
+            if (map == null || map.capacity() < end)
+                map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.jotterbach.blockchain;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Net effect of one block on the UTXO set: the outputs it spends, recorded together with their
+ * values so they can be restored, and the outputs it creates. Outputs created and spent within the
+ * same block appear in neither list, so applying and rolling back are order independent.
+ */
+public class BlockUndo {
+
+    private final List<UTXO> spent = new ArrayList<>();
+    private final List<Transaction.Output> spentOutputs = new ArrayList<>();
+    private final List<UTXO> created = new ArrayList<>();
+    private final List<Transaction.Output> createdOutputs = new ArrayList<>();
+
+    private BlockUndo() {
+    }
+
+    /**
+     * Records the changes {@code b} makes to {@code parentState}, the UTXO set right before it. The
+     * block's transactions are assumed to be valid against that state.
+     */
+    public static BlockUndo of(Block b, UTXOPool parentState) {
+        Map<UTXO, Transaction.Output> spent = new LinkedHashMap<>();
+        Map<UTXO, Transaction.Output> created = new LinkedHashMap<>();
+        for (Transaction tx : b.getTransactions()) {
+            for (Transaction.Input in : tx.getInputs()) {
+                UTXO utxo = new UTXO(in.prevTxHash, in.outputIndex);
+                if (created.remove(utxo) == null)
+                    spent.put(utxo, parentState.getTxOutput(utxo));
+            }
+            addOutputs(tx, parentState, spent, created);
+        }
+        addOutputs(b.getCoinbase(), parentState, spent, created);
+
+        BlockUndo undo = new BlockUndo();
+        spent.forEach((utxo, txOut) -> {
+            undo.spent.add(utxo);
+            undo.spentOutputs.add(txOut);
+        });
+        created.forEach((utxo, txOut) -> {
+            undo.created.add(utxo);
+            undo.createdOutputs.add(txOut);
+        });
+        return undo;
+    }
+
+    /**
+     * An output that replaces one already in the parent state (e.g. a coinbase with the same hash)
+     * is treated as spending the old one, so a rollback restores it.
+     */
+    private static void addOutputs(Transaction tx, UTXOPool parentState,
+                                   Map<UTXO, Transaction.Output> spent, Map<UTXO, Transaction.Output> created) {
+        for (int i = 0; i < tx.numOutputs(); i++) {
+            UTXO utxo = new UTXO(tx.getHash(), i);
+            if (!spent.containsKey(utxo) && parentState.contains(utxo))
+                spent.put(utxo, parentState.getTxOutput(utxo));
+            created.put(utxo, tx.getOutput(i));
+        }
+    }
+
+    /** Moves {@code state} from the parent of this block to this block */
+    public void apply(UTXOPool state) {
+        for (UTXO utxo : spent)
+            state.removeUTXO(utxo);
+        for (int i = 0; i < created.size(); i++)
+            state.addUTXO(created.get(i), createdOutputs.get(i));
+    }
+
+    /** Moves {@code state} from this block back to its parent */
+    public void rollback(UTXOPool state) {
+        for (UTXO utxo : created)
+            state.removeUTXO(utxo);
+        for (int i = 0; i < spent.size(); i++)
+            state.addUTXO(spent.get(i), spentOutputs.get(i));
+    }
+
+    /** @return the number of UTXO changes recorded for this block */
+    public int size() {
+        return spent.size() + created.size();
+    }
+}
@@ -0,0 +1,153 @@
+package com.jotterbach.blockchain;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checkpoint of a {@link BlockChain}: the oldest block it still holds together with the UTXO set
+ * right after that block, and every younger block in the order they were added. The file layout is
+ *
+ * <pre>
+ *   int magic | int version | int rootHeight | block root
+ *   int numKeys  | numKeys  x (bytes encodedKey)
+ *   int numUtxos | numUtxos x (bytes txHash | int index | double value | int keyId)
+ *   int numBlocks | numBlocks x block
+ * </pre>
+ *
+ * where {@code bytes} and {@code block} are length prefixed and blocks use {@link BlockCodec}.
+ * Public keys are stored once and referenced by id, as most of them own many outputs.
+ */
+final class ChainSnapshot {
+
+    private static final int MAGIC = 0x55545853;
+    private static final int VERSION = 1;
+
+    private final Block root;
+    private final int rootHeight;
+    private final UTXOPool utxoPool;
+    private final List<Block> blocks = new ArrayList<>();
+
+    ChainSnapshot(Block root, int rootHeight, UTXOPool utxoPool) {
+        this.root = root;
+        this.rootHeight = rootHeight;
+        this.utxoPool = utxoPool;
+    }
+
+    Block getRoot() {
+        return root;
+    }
+
+    int getRootHeight() {
+        return rootHeight;
+    }
+
+    /** @return the UTXO set right after {@link #getRoot()} */
+    UTXOPool getUtxoPool() {
+        return utxoPool;
+    }
+
+    /** @return the blocks above the root, every parent before its children */
+    List<Block> getBlocks() {
+        return blocks;
+    }
+
+    void addBlock(Block b) {
+        blocks.add(b);
+    }
+
+    /** Writes the snapshot next to {@code file} first and moves it in place, so a crash never leaves half of it */
+    void write(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(rootHeight);
+            writeBytes(out, BlockCodec.encode(root));
+
+            List<UTXO> utxos = utxoPool.getAllUTXO();
+            Map<PublicKey, Integer> keyIds = new HashMap<>();
+            List<PublicKey> keys = new ArrayList<>();
+            for (UTXO utxo : utxos) {
+                PublicKey key = utxoPool.getTxOutput(utxo).address;
+                if (keyIds.putIfAbsent(key, keys.size()) == null)
+                    keys.add(key);
+            }
+            out.writeInt(keys.size());
+            for (PublicKey key : keys)
+                writeBytes(out, key.getEncoded());
+            out.writeInt(utxos.size());
+            for (UTXO utxo : utxos) {
+                Transaction.Output txOut = utxoPool.getTxOutput(utxo);
+                writeBytes(out, utxo.getTxHash());
+                out.writeInt(utxo.getIndex());
+                out.writeDouble(txOut.value);
+                out.writeInt(keyIds.get(txOut.address));
+            }
+
+            out.writeInt(blocks.size());
+            for (Block b : blocks)
+                writeBytes(out, BlockCodec.encode(b));
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static ChainSnapshot read(Path file) throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(file)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (in.getInt() != MAGIC || in.getInt() != VERSION)
+            throw new IOException(file + " is not a block chain snapshot");
+        int rootHeight = in.getInt();
+        Block root = readBlock(in);
+
+        PublicKey[] keys = new PublicKey[in.getInt()];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = BlockCodec.decodeKey(readBytes(in));
+        // outputs are inner objects of a transaction; this one only serves as their owner
+        Transaction owner = new Transaction();
+        UTXOPool utxoPool = new UTXOPool();
+        int numUtxos = in.getInt();
+        for (int i = 0; i < numUtxos; i++) {
+            UTXO utxo = new UTXO(readBytes(in), in.getInt());
+            double value = in.getDouble();
+            utxoPool.addUTXO(utxo, owner.new Output(value, keys[in.getInt()]));
+        }
+
+        ChainSnapshot snapshot = new ChainSnapshot(root, rootHeight, utxoPool);
+        int numBlocks = in.getInt();
+        for (int i = 0; i < numBlocks; i++)
+            snapshot.addBlock(readBlock(in));
+        return snapshot;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] b) throws IOException {
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        byte[] b = new byte[in.getInt()];
+        in.get(b);
+        return b;
+    }
+
+    private static Block readBlock(ByteBuffer in) {
+        int length = in.getInt();
+        ByteBuffer encoded = in.slice();
+        encoded.limit(length);
+        in.position(in.position() + length);
+        return BlockCodec.decode(encoded);
+    }
+}
@@ -0,0 +1,71 @@
+package com.jotterbach.blockchain;
+
+/**
+ * Hashing and linear probing shared by {@link UTXOTable} and {@link MappedUTXOTable}, whose slots
+ * hold a 32-byte transaction hash as four big-endian longs plus an output index. The tables differ
+ * only in where the slots live, which they expose through {@link Slots}.
+ */
+final class LinearProbing {
+
+    private LinearProbing() {
+    }
+
+    /** Access to the slots of a table with a power of two of them */
+    interface Slots {
+        boolean isEmpty(int slot);
+
+        /** @return true if the non-empty {@code slot} holds the given key */
+        boolean holds(int slot, long k0, long k1, long k2, long k3, int index);
+
+        /** @return the home slot of the key held by the non-empty {@code slot} */
+        int homeOf(int slot);
+
+        /** Moves the entry of {@code from} into {@code to}, leaving {@code from} as it is */
+        void move(int from, int to);
+
+        void clear(int slot);
+    }
+
+    /** @return the slot holding the key, or the bitwise complement of the empty slot it belongs in */
+    static int find(Slots slots, int mask, long k0, long k1, long k2, long k3, int index) {
+        int slot = home(k0, k1, k2, k3, index, mask);
+        while (!slots.isEmpty(slot)) {
+            if (slots.holds(slot, k0, k1, k2, k3, index))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return ~slot;
+    }
+
+    /**
+     * Empties {@code hole}, shifting back every following entry of the run that may move into it,
+     * i.e. whose home slot does not lie cyclically between the hole and its current slot, so that
+     * no tombstones are needed
+     */
+    static void removeAt(Slots slots, int mask, int hole) {
+        for (int slot = (hole + 1) & mask; !slots.isEmpty(slot); slot = (slot + 1) & mask) {
+            int home = slots.homeOf(slot);
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                slots.move(slot, hole);
+                hole = slot;
+            }
+        }
+        slots.clear(hole);
+    }
+
+    static int home(long k0, long k1, long k2, long k3, int index, int mask) {
+        long h = (((k0 * 31 + k1) * 31 + k2) * 31 + k3) * 31 + index;
+        // finalizer of MurmurHash3, so that every bit of the key reaches the low bits of the slot
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return (int) (h ^ (h >>> 33)) & mask;
+    }
+
+    /** @return bytes {@code 8 * i} to {@code 8 * i + 7} of {@code txHash} as a big-endian long */
+    static long word(byte[] txHash, int i) {
+        long w = 0;
+        for (int b = i * Long.BYTES; b < (i + 1) * Long.BYTES; b++)
+            w = (w << 8) | (txHash[b] & 0xff);
+        return w;
+    }
+}
@@ -0,0 +1,512 @@
+package com.jotterbach.blockchain;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Open-addressing UTXO table that lives in memory-mapped files instead of the Java heap, so a set
+ * of many millions of UTXOs adds nothing for the garbage collector to trace. The directory holds
+ *
+ * <pre>
+ *   utxos.idx  int magic | int version | int capacity | int size | capacity slots of
+ *              32 bytes tx hash | int index | int key | double value
+ *   keys.dat   int length | X.509 encoded public key, for every distinct address
+ * </pre>
+ *
+ * A slot refers to its address by position in {@code keys.dat}; only the decoded keys, one per
+ * distinct address, are kept on the heap. Slots are probed like in {@link UTXOTable}, through
+ * {@link LinearProbing}.
+ * When the table fills up it is rehashed into a file of twice the capacity, which then replaces
+ * the old one. Reopening the directory restores the set as last written; call {@link #flush} to
+ * make it survive a crash of the machine. UTXOs whose hash is not 32 bytes long are kept on the
+ * heap and not persisted.
+ *
+ * <p>{@link #copy()} takes constant time: a copy keeps the UTXOs it changes on the heap and reads
+ * all others through to this table, which hands every live copy the old output of a UTXO before
+ * changing it. The table and its copies share one lock, as they share state.
+ */
+final class MappedUTXOTable implements UTXOStore {
+
+    private static final int MAGIC = 0x5554584f;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * Integer.BYTES;
+    private static final int CAPACITY_OFFSET = 2 * Integer.BYTES;
+    private static final int SIZE_OFFSET = 3 * Integer.BYTES;
+
+    private static final int HASH_LENGTH = 32;
+    private static final int INDEX = HASH_LENGTH;
+    private static final int KEY = INDEX + Integer.BYTES;
+    private static final int VALUE = KEY + Integer.BYTES;
+    private static final int SLOT_SIZE = VALUE + Double.BYTES;
+    /** {@code KEY} of an empty slot */
+    private static final int EMPTY = 0;
+    /** {@code KEY} of an output without address; stored keys are numbered from {@code FIRST_KEY} */
+    private static final int NO_KEY = 1;
+    private static final int FIRST_KEY = 2;
+
+    private static final int MIN_CAPACITY = 1 << 10;
+    /** slots per mapping; no single mapping may exceed 2 GB */
+    private static final int CHUNK_BITS = 16;
+
+    private final Path dir;
+    private Index index;
+    private int size;
+
+    private final FileChannel keyFile;
+    private final List<PublicKey> keys = new ArrayList<>();
+    private final Map<PublicKey, Integer> keyIds = new HashMap<>();
+
+    /** outputs are inner objects of a transaction; this one only serves as their owner */
+    private final Transaction owner = new Transaction();
+    private final UTXOStore other = new UTXOTrie();
+
+    /** the copies taken of this table that have not been closed or collected yet */
+    private final Set<WeakReference<Copy>> copies = new HashSet<>();
+    /** references to collected copies, removed from {@code copies} whenever a copy is registered */
+    private final ReferenceQueue<Copy> collected = new ReferenceQueue<>();
+    /** stands for a UTXO a copy does not have, where this table may */
+    private static final Transaction.Output REMOVED = new Transaction().new Output(0, null);
+
+    /** Opens the table stored in {@code dir}, creating an empty one if there is none */
+    MappedUTXOTable(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        Path indexFile = dir.resolve("utxos.idx");
+        index = Files.exists(indexFile) ? Index.open(indexFile) : Index.create(indexFile, MIN_CAPACITY);
+        size = index.header.getInt(SIZE_OFFSET);
+        keyFile = FileChannel.open(dir.resolve("keys.dat"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        loadKeys();
+    }
+
+    public synchronized int size() {
+        return size + other.size();
+    }
+
+    public synchronized Transaction.Output get(byte[] txHash, int index) {
+        if (txHash.length != HASH_LENGTH)
+            return other.get(txHash, index);
+        int slot = this.index.find(txHash, index);
+        if (slot < 0)
+            return null;
+        ByteBuffer chunk = this.index.chunk(slot);
+        int offset = Index.offset(slot);
+        int key = chunk.getInt(offset + KEY);
+        return owner.new Output(chunk.getDouble(offset + VALUE), key == NO_KEY ? null : keys.get(key - FIRST_KEY));
+    }
+
+    public synchronized void put(UTXO utxo, Transaction.Output txOut) {
+        byte[] txHash = utxo.getTxHash();
+        preserve(txHash, utxo.getIndex());
+        if (txHash.length != HASH_LENGTH) {
+            other.put(utxo, txOut);
+            return;
+        }
+        if (txOut == null) {
+            remove(txHash, utxo.getIndex());
+            return;
+        }
+        int key = keyId(txOut.address);
+        int slot = index.find(txHash, utxo.getIndex());
+        if (slot < 0) {
+            slot = ~slot;
+            ByteBuffer chunk = index.chunk(slot);
+            int offset = Index.offset(slot);
+            for (int i = 0; i < HASH_LENGTH; i++)
+                chunk.put(offset + i, txHash[i]);
+            chunk.putInt(offset + INDEX, utxo.getIndex());
+            size++;
+        }
+        ByteBuffer chunk = index.chunk(slot);
+        int offset = Index.offset(slot);
+        chunk.putDouble(offset + VALUE, txOut.value);
+        chunk.putInt(offset + KEY, key);
+        index.header.putInt(SIZE_OFFSET, size);
+        if (size > index.capacity / 4 * 3)
+            grow();
+    }
+
+    public synchronized void remove(byte[] txHash, int index) {
+        preserve(txHash, index);
+        if (txHash.length != HASH_LENGTH) {
+            other.remove(txHash, index);
+            return;
+        }
+        int hole = this.index.find(txHash, index);
+        if (hole < 0)
+            return;
+        size--;
+        this.index.header.putInt(SIZE_OFFSET, size);
+        this.index.removeAt(hole);
+    }
+
+    public synchronized void forEach(BiConsumer<UTXO, Transaction.Output> action) {
+        byte[] txHash = new byte[HASH_LENGTH];
+        for (int slot = 0; slot < index.capacity; slot++) {
+            ByteBuffer chunk = index.chunk(slot);
+            int offset = Index.offset(slot);
+            int key = chunk.getInt(offset + KEY);
+            if (key == EMPTY)
+                continue;
+            for (int i = 0; i < HASH_LENGTH; i++)
+                txHash[i] = chunk.get(offset + i);
+            action.accept(new UTXO(txHash, chunk.getInt(offset + INDEX)),
+                    owner.new Output(chunk.getDouble(offset + VALUE), key == NO_KEY ? null : keys.get(key - FIRST_KEY)));
+        }
+        other.forEach(action);
+    }
+
+    /** @return a copy that reads through to this table, in constant time */
+    public synchronized UTXOStore copy() {
+        Copy copy = new Copy(this, this, new UTXOTrie(), size());
+        register(copy);
+        return copy;
+    }
+
+    /** Lets {@link #preserve} serve {@code copy}, first dropping the copies collected so far */
+    private void register(Copy copy) {
+        for (Reference<? extends Copy> ref; (ref = collected.poll()) != null; )
+            copies.remove(ref);
+        copy.registration = new WeakReference<>(copy, collected);
+        copies.add(copy.registration);
+    }
+
+    public synchronized void flush() throws IOException {
+        keyFile.force(false);
+        index.force();
+    }
+
+    /**
+     * Detaches the live copies, each of which takes the UTXOs it read through to onto the heap,
+     * and closes both files. The mappings are released once they are garbage collected.
+     */
+    public synchronized void close() throws IOException {
+        for (WeakReference<Copy> ref : copies) {
+            Copy copy = ref.get();
+            if (copy != null)
+                copy.detach();
+        }
+        copies.clear();
+        index.channel.close();
+        keyFile.close();
+    }
+
+    /** Hands every live copy that does not have its own output of the key the current one */
+    private void preserve(byte[] txHash, int index) {
+        if (copies.isEmpty())
+            return;
+        Transaction.Output current = get(txHash, index);
+        UTXO utxo = null;
+        for (Iterator<WeakReference<Copy>> it = copies.iterator(); it.hasNext(); ) {
+            Copy copy = it.next().get();
+            if (copy == null) {
+                it.remove();
+                continue;
+            }
+            if (copy.changes.get(txHash, index) == null) {
+                if (utxo == null)
+                    utxo = new UTXO(txHash, index);
+                copy.changes.put(utxo, current == null ? REMOVED : current);
+            }
+        }
+    }
+
+    /** @return the number under which {@code address} is stored, appending it to the key file if new */
+    private int keyId(PublicKey address) {
+        if (address == null)
+            return NO_KEY;
+        Integer id = keyIds.get(address);
+        if (id != null)
+            return id;
+        byte[] encoded = address.getEncoded();
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + encoded.length);
+        record.putInt(encoded.length).put(encoded).flip();
+        try {
+            long end = keyFile.size();
+            while (record.hasRemaining())
+                keyFile.write(record, end + record.position());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        id = FIRST_KEY + keys.size();
+        keys.add(address);
+        keyIds.put(address, id);
+        return id;
+    }
+
+    /** Decodes all complete records of the key file, cutting off a record left half-written */
+    private void loadKeys() throws IOException {
+        long length = keyFile.size();
+        ByteBuffer data = keyFile.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        int offset = 0;
+        while (offset + Integer.BYTES <= length) {
+            int keyLength = data.getInt(offset);
+            if (keyLength < 0 || offset + Integer.BYTES + keyLength > length)
+                break;
+            byte[] encoded = new byte[keyLength];
+            data.position(offset + Integer.BYTES);
+            data.get(encoded);
+            PublicKey key = BlockCodec.decodeKey(encoded);
+            keyIds.put(key, FIRST_KEY + keys.size());
+            keys.add(key);
+            offset += Integer.BYTES + keyLength;
+        }
+        if (offset < length)
+            keyFile.truncate(offset);
+    }
+
+    /** Rehashes all slots into a file of twice the capacity and swaps it in */
+    private void grow() {
+        try {
+            Path indexFile = dir.resolve("utxos.idx");
+            Path tmp = dir.resolve("utxos.idx.tmp");
+            Files.deleteIfExists(tmp);
+            Index bigger = Index.create(tmp, index.capacity * 2);
+            byte[] slot = new byte[SLOT_SIZE];
+            for (int s = 0; s < index.capacity; s++) {
+                ByteBuffer chunk = index.chunk(s);
+                int offset = Index.offset(s);
+                if (chunk.getInt(offset + KEY) == EMPTY)
+                    continue;
+                chunk.position(offset);
+                chunk.get(slot);
+                int to = ~bigger.find(slot, ByteBuffer.wrap(slot).getInt(INDEX));
+                ByteBuffer target = bigger.chunk(to);
+                target.position(Index.offset(to));
+                target.put(slot);
+            }
+            bigger.header.putInt(SIZE_OFFSET, size);
+            bigger.force();
+            index.channel.close();
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            index = bigger;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * A copy of a table: the outputs it differs in, with {@link #REMOVED} for those it lacks, over
+     * the table it was taken from. Once the table is closed, the copy holds all of its UTXOs.
+     */
+    private static final class Copy implements UTXOStore {
+        private final Object lock;
+        /** the table read through to, or null once detached */
+        private MappedUTXOTable base;
+        /** the entry of this copy in the {@code copies} of {@code base} */
+        private WeakReference<Copy> registration;
+        private UTXOStore changes;
+        private int size;
+
+        Copy(Object lock, MappedUTXOTable base, UTXOStore changes, int size) {
+            this.lock = lock;
+            this.base = base;
+            this.changes = changes;
+            this.size = size;
+        }
+
+        public int size() {
+            synchronized (lock) {
+                return size;
+            }
+        }
+
+        public Transaction.Output get(byte[] txHash, int index) {
+            synchronized (lock) {
+                Transaction.Output txOut = changes.get(txHash, index);
+                if (txOut != null)
+                    return txOut == REMOVED ? null : txOut;
+                return base == null ? null : base.get(txHash, index);
+            }
+        }
+
+        public void put(UTXO utxo, Transaction.Output txOut) {
+            synchronized (lock) {
+                if (txOut == null) {
+                    remove(utxo.getTxHash(), utxo.getIndex());
+                    return;
+                }
+                if (get(utxo.getTxHash(), utxo.getIndex()) == null)
+                    size++;
+                changes.put(utxo, txOut);
+            }
+        }
+
+        public void remove(byte[] txHash, int index) {
+            synchronized (lock) {
+                if (get(txHash, index) == null)
+                    return;
+                size--;
+                if (base == null)
+                    changes.remove(txHash, index);
+                else
+                    changes.put(new UTXO(txHash, index), REMOVED);
+            }
+        }
+
+        public void forEach(BiConsumer<UTXO, Transaction.Output> action) {
+            synchronized (lock) {
+                if (base != null) {
+                    base.forEach((utxo, txOut) -> {
+                        if (changes.get(utxo.getTxHash(), utxo.getIndex()) == null)
+                            action.accept(utxo, txOut);
+                    });
+                }
+                changes.forEach((utxo, txOut) -> {
+                    if (txOut != REMOVED)
+                        action.accept(utxo, txOut);
+                });
+            }
+        }
+
+        public UTXOStore copy() {
+            synchronized (lock) {
+                if (base == null)
+                    return new Copy(new Object(), null, changes.copy(), size);
+                Copy copy = new Copy(lock, base, changes.copy(), size);
+                base.register(copy);
+                return copy;
+            }
+        }
+
+        /** Unregisters from the table; the copy may not be used afterwards */
+        public void close() {
+            synchronized (lock) {
+                if (base != null)
+                    base.copies.remove(registration);
+                base = null;
+                changes = new UTXOTrie();
+                size = 0;
+            }
+        }
+
+        /** Takes every UTXO read through to the table onto the heap and stops reading it */
+        void detach() {
+            UTXOTrie own = new UTXOTrie();
+            forEach(own::put);
+            changes = own;
+            base = null;
+        }
+    }
+
+    /** The mapped slots of one index file */
+    private static final class Index implements LinearProbing.Slots {
+        final FileChannel channel;
+        final MappedByteBuffer header;
+        final MappedByteBuffer[] chunks;
+        final int capacity;
+        final int mask;
+        private final byte[] moved = new byte[SLOT_SIZE];
+
+        private Index(FileChannel channel, int capacity) throws IOException {
+            this.channel = channel;
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            int chunkSlots = Math.min(capacity, 1 << CHUNK_BITS);
+            chunks = new MappedByteBuffer[capacity / chunkSlots];
+            for (int i = 0; i < chunks.length; i++)
+                chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        HEADER_SIZE + (long) i * chunkSlots * SLOT_SIZE, (long) chunkSlots * SLOT_SIZE);
+        }
+
+        /** Creates an index file of {@code capacity} empty slots; the file system zero-fills it */
+        static Index create(Path file, int capacity) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.write(ByteBuffer.allocate(1), HEADER_SIZE + (long) capacity * SLOT_SIZE - 1);
+            Index index = new Index(channel, capacity);
+            index.header.putInt(0, MAGIC).putInt(Integer.BYTES, VERSION).putInt(CAPACITY_OFFSET, capacity);
+            return index;
+        }
+
+        static Index open(Path file) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long length = channel.size();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(length, HEADER_SIZE));
+            if (length < HEADER_SIZE || header.getInt(0) != MAGIC || header.getInt(Integer.BYTES) != VERSION
+                    || Integer.bitCount(header.getInt(CAPACITY_OFFSET)) != 1
+                    || length < HEADER_SIZE + (long) header.getInt(CAPACITY_OFFSET) * SLOT_SIZE) {
+                channel.close();
+                throw new IOException(file + " is not a UTXO index");
+            }
+            int capacity = header.getInt(CAPACITY_OFFSET);
+            return new Index(channel, capacity);
+        }
+
+        ByteBuffer chunk(int slot) {
+            return chunks.length == 1 ? chunks[0] : chunks[slot >>> CHUNK_BITS];
+        }
+
+        static int offset(int slot) {
+            return (slot & ((1 << CHUNK_BITS) - 1)) * SLOT_SIZE;
+        }
+
+        /** @return the slot holding the key, or the bitwise complement of the empty slot it belongs in */
+        int find(byte[] txHash, int index) {
+            return LinearProbing.find(this, mask, LinearProbing.word(txHash, 0), LinearProbing.word(txHash, 1),
+                    LinearProbing.word(txHash, 2), LinearProbing.word(txHash, 3), index);
+        }
+
+        void removeAt(int hole) {
+            LinearProbing.removeAt(this, mask, hole);
+        }
+
+        public boolean isEmpty(int slot) {
+            return chunk(slot).getInt(offset(slot) + KEY) == EMPTY;
+        }
+
+        public boolean holds(int slot, long k0, long k1, long k2, long k3, int index) {
+            ByteBuffer chunk = chunk(slot);
+            int offset = offset(slot);
+            return chunk.getLong(offset) == k0 && chunk.getLong(offset + 8) == k1
+                    && chunk.getLong(offset + 16) == k2 && chunk.getLong(offset + 24) == k3
+                    && chunk.getInt(offset + INDEX) == index;
+        }
+
+        public int homeOf(int slot) {
+            ByteBuffer chunk = chunk(slot);
+            int offset = offset(slot);
+            return LinearProbing.home(chunk.getLong(offset), chunk.getLong(offset + 8), chunk.getLong(offset + 16),
+                    chunk.getLong(offset + 24), chunk.getInt(offset + INDEX), mask);
+        }
+
+        public void move(int from, int to) {
+            ByteBuffer chunk = chunk(from);
+            chunk.position(offset(from));
+            chunk.get(moved);
+            ByteBuffer target = chunk(to);
+            target.position(offset(to));
+            target.put(moved);
+        }
+
+        public void clear(int slot) {
+            chunk(slot).putInt(offset(slot) + KEY, EMPTY);
+        }
+
+        void force() {
+            header.force();
+            for (MappedByteBuffer chunk : chunks)
+                chunk.force();
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.jotterbach.blockchain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks a mutually valid subset of a batch that pays as much in fees as it can find within a time
+ * budget, where {@link TxHandler} takes whichever claimant of a contested output it meets first.
+ *
+ * <p>
+ * Every transaction is first checked on its own, as if all outputs of the batch existed, with
+ * the signatures of the whole batch verified up front in parallel. What remains are the two ways
+ * transactions constrain each other: a child needs its in-batch parents, and at most one
+ * transaction may spend any output. The batch splits into components along those edges;
+ * components without a double spend are taken whole. The others get a greedy pass in
+ * {@link TxGraph} order, which the handler would produce as well, and then, up to
+ * {@link #MAX_EXACT_COMPONENT} transactions each, a branch and bound search that keeps the
+ * greedy result if the budget runs out first.
+ */
+public class MaxFeeTxHandler {
+
+    public static final long DEFAULT_TIME_BUDGET_MILLIS = 20;
+    /** components larger than this are only solved greedily */
+    public static final int MAX_EXACT_COMPONENT = 64;
+
+    private final UTXOPool utxoPool;
+    private final long timeBudgetNanos;
+    private final SignatureVerifier verifier;
+    private TxHandler handler;
+
+    public MaxFeeTxHandler(UTXOPool utxoPool) {
+        this(utxoPool, DEFAULT_TIME_BUDGET_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /** A budget of zero skips the exact search and keeps the greedy selection */
+    public MaxFeeTxHandler(UTXOPool utxoPool, long timeBudget, TimeUnit unit) {
+        this(utxoPool, timeBudget, unit, new SignatureVerifier());
+    }
+
+    public MaxFeeTxHandler(UTXOPool utxoPool, long timeBudget, TimeUnit unit, SignatureVerifier verifier) {
+        this.utxoPool = new UTXOPool(utxoPool);
+        this.timeBudgetNanos = unit.toNanos(timeBudget);
+        this.verifier = verifier;
+        this.handler = new TxHandler(this.utxoPool, verifier);
+    }
+
+    /**
+     * Selects transactions from {@code possibleTxs}, updates the UTXO pool accordingly and returns
+     * them, parents before children.
+     */
+    public Transaction[] handleTxs(Transaction[] possibleTxs) {
+        long deadline = System.nanoTime() + timeBudgetNanos;
+        Selection selection = new Selection(possibleTxs);
+        boolean[] chosen = selection.greedy();
+        for (int[] component : selection.contestedComponents()) {
+            if (component.length > MAX_EXACT_COMPONENT || System.nanoTime() >= deadline)
+                continue;
+            selection.search(component, chosen, deadline);
+        }
+
+        List<Transaction> selected = new ArrayList<>();
+        for (int i : selection.graph.order())
+            if (chosen[i])
+                selected.add(possibleTxs[i]);
+        // the selection is valid by construction; the handler applies it to the pool
+        handler = new TxHandler(utxoPool, verifier);
+        return handler.handleTxs(selected.toArray(new Transaction[0]));
+    }
+
+    /** @return the fees paid by {@code txs} when spending outputs of {@code utxoPool} or each other */
+    public static double totalFee(Transaction[] txs, UTXOPool utxoPool) {
+        TxGraph graph = new TxGraph(txs, utxoPool);
+        double fee = 0;
+        for (int i = 0; i < txs.length; i++)
+            fee += graph.fee(i);
+        return fee;
+    }
+
+    public UTXOPool getUTXOPool() {
+        return handler.getUTXOPool();
+    }
+
+    private final class Selection {
+        final TxGraph graph;
+        final int n;
+        /** valid on its own and all of its in-batch ancestors are too */
+        final boolean[] valid;
+        /** {@code outpoints[outpointStart[i]..outpointStart[i + 1])} are the outputs tx i spends */
+        final int[] outpointStart;
+        final int[] outpoints;
+        final int outpointCount;
+        final int[] component;
+        final boolean[] contested;
+
+        Selection(Transaction[] txs) {
+            n = txs.length;
+            graph = new TxGraph(txs, utxoPool);
+
+            UTXOPool optimistic = new UTXOPool(utxoPool);
+            for (Transaction tx : txs)
+                for (int i = 0; i < tx.numOutputs(); i++)
+                    optimistic.addUTXO(new UTXO(tx.getHash(), i), tx.getOutput(i));
+            TxHandler check = new TxHandler(optimistic, verifier);
+            check.verifyAll(txs);
+            valid = new boolean[n];
+            // children always point at the first copy of a transaction listed twice
+            Set<ByteArrayWrapper> hashes = new HashSet<>();
+            for (int i = 0; i < n; i++)
+                valid[i] = hashes.add(new ByteArrayWrapper(txs[i].getHash()));
+            for (int i : graph.order()) {
+                valid[i] = valid[i] && check.isValidTx(txs[i]);
+                for (int p : graph.parents(i))
+                    valid[i] &= valid[p];
+            }
+
+            Map<UTXO, Integer> ids = new HashMap<>();
+            outpointStart = new int[n + 1];
+            List<Integer> spent = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                for (Transaction.Input in : txs[i].getInputs()) {
+                    if (in.prevTxHash != null)
+                        spent.add(ids.computeIfAbsent(new UTXO(in.prevTxHash, in.outputIndex), u -> ids.size()));
+                }
+                outpointStart[i + 1] = spent.size();
+            }
+            outpoints = spent.stream().mapToInt(Integer::intValue).toArray();
+            outpointCount = ids.size();
+
+            // components over parent and double spend edges, among valid transactions only
+            int[] root = new int[n];
+            for (int i = 0; i < n; i++)
+                root[i] = i;
+            int[] firstClaimant = new int[ids.size()];
+            Arrays.fill(firstClaimant, -1);
+            boolean[] contestedOutpoint = new boolean[ids.size()];
+            for (int i = 0; i < n; i++) {
+                if (!valid[i])
+                    continue;
+                for (int p : graph.parents(i))
+                    union(root, i, p);
+                for (int j = outpointStart[i]; j < outpointStart[i + 1]; j++) {
+                    int o = outpoints[j];
+                    if (firstClaimant[o] < 0) {
+                        firstClaimant[o] = i;
+                    } else {
+                        contestedOutpoint[o] = true;
+                        union(root, i, firstClaimant[o]);
+                    }
+                }
+            }
+            component = new int[n];
+            contested = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                component[i] = find(root, i);
+                for (int j = outpointStart[i]; j < outpointStart[i + 1]; j++)
+                    if (valid[i] && contestedOutpoint[outpoints[j]])
+                        contested[component[i]] = true;
+            }
+        }
+
+        /** Takes every valid transaction in graph order whose parents are in and outputs still free */
+        boolean[] greedy() {
+            boolean[] chosen = new boolean[n];
+            boolean[] claimed = new boolean[outpointCount];
+            for (int i : graph.order()) {
+                if (canInclude(i, chosen, claimed)) {
+                    chosen[i] = true;
+                    claim(i, claimed, true);
+                }
+            }
+            return chosen;
+        }
+
+        /** @return the valid transactions of each component with a double spend, parents first */
+        List<int[]> contestedComponents() {
+            Map<Integer, List<Integer>> members = new HashMap<>();
+            for (int i : graph.order())
+                if (valid[i] && contested[component[i]])
+                    members.computeIfAbsent(component[i], c -> new ArrayList<>()).add(i);
+            List<int[]> components = new ArrayList<>();
+            for (List<Integer> m : members.values())
+                components.add(m.stream().mapToInt(Integer::intValue).toArray());
+            return components;
+        }
+
+        /** Replaces the choice within {@code members} by the best one found before {@code deadline} */
+        void search(int[] members, boolean[] chosen, long deadline) {
+            int m = members.length;
+            double[] suffix = new double[m + 1];
+            for (int k = m - 1; k >= 0; k--)
+                suffix[k] = suffix[k + 1] + Math.max(0, graph.fee(members[k]));
+            Search s = new Search(members, suffix, deadline);
+            for (int k = 0; k < m; k++) {
+                s.best[k] = chosen[members[k]];
+                if (s.best[k])
+                    s.bestFee += graph.fee(members[k]);
+            }
+            boolean[] claimed = new boolean[outpointCount];
+            s.run(0, 0, new boolean[n], claimed);
+            for (int k = 0; k < m; k++)
+                chosen[members[k]] = s.best[k];
+        }
+
+        private boolean canInclude(int i, boolean[] chosen, boolean[] claimed) {
+            if (!valid[i])
+                return false;
+            for (int p : graph.parents(i))
+                if (!chosen[p])
+                    return false;
+            for (int j = outpointStart[i]; j < outpointStart[i + 1]; j++)
+                if (claimed[outpoints[j]])
+                    return false;
+            return true;
+        }
+
+        private void claim(int i, boolean[] claimed, boolean value) {
+            for (int j = outpointStart[i]; j < outpointStart[i + 1]; j++)
+                claimed[outpoints[j]] = value;
+        }
+
+        private final class Search {
+            final int[] members;
+            final double[] suffix;
+            final long deadline;
+            final boolean[] best;
+            double bestFee;
+            long nodes;
+            boolean outOfTime;
+
+            Search(int[] members, double[] suffix, long deadline) {
+                this.members = members;
+                this.suffix = suffix;
+                this.deadline = deadline;
+                best = new boolean[members.length];
+            }
+
+            /** Decides members {@code k..} given the choice so far in {@code chosen} */
+            void run(int k, double fee, boolean[] chosen, boolean[] claimed) {
+                if (outOfTime || fee + suffix[k] <= bestFee)
+                    return;
+                if ((++nodes & 1023) == 0 && System.nanoTime() >= deadline) {
+                    outOfTime = true;
+                    return;
+                }
+                if (k == members.length) {
+                    if (fee > bestFee) {
+                        bestFee = fee;
+                        for (int j = 0; j < members.length; j++)
+                            best[j] = chosen[members[j]];
+                    }
+                    return;
+                }
+                int t = members[k];
+                if (canInclude(t, chosen, claimed)) {
+                    chosen[t] = true;
+                    claim(t, claimed, true);
+                    run(k + 1, fee + graph.fee(t), chosen, claimed);
+                    claim(t, claimed, false);
+                    chosen[t] = false;
+                }
+                run(k + 1, fee, chosen, claimed);
+            }
+        }
+    }
+
+    private static int find(int[] root, int i) {
+        while (root[i] != i) {
+            root[i] = root[root[i]];
+            i = root[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] root, int a, int b) {
+        root[find(root, a)] = find(root, b);
+    }
+}
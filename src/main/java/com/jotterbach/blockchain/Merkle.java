@@ -0,0 +1,129 @@
+package com.jotterbach.blockchain;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary Merkle tree over the transaction hashes of a block. Leaves are
+ * {@code SHA-256(0x00 | txHash)} and interior nodes {@code SHA-256(0x01 | left | right)}, so one
+ * can never be passed off as the other; a node left without a sibling at the end of a level is
+ * carried up unchanged, so no transaction is ever paired with itself. The root of an empty tree
+ * is all zeros.
+ */
+final class Merkle {
+
+    static final int HASH_LENGTH = 32;
+    static final byte[] EMPTY_ROOT = new byte[HASH_LENGTH];
+
+    /** keep leaves and interior nodes apart */
+    private static final byte LEAF_PREFIX = 0;
+    private static final byte NODE_PREFIX = 1;
+
+    private Merkle() {
+    }
+
+    static byte[] leaf(byte[] txHash) {
+        MessageDigest md = Crypto.sha256();
+        md.update(LEAF_PREFIX);
+        md.update(txHash);
+        return md.digest();
+    }
+
+    static byte[] node(byte[] left, byte[] right) {
+        MessageDigest md = Crypto.sha256();
+        md.update(NODE_PREFIX);
+        md.update(left);
+        md.update(right);
+        return md.digest();
+    }
+
+    /**
+     * Builds the root while leaves are appended, keeping only the root of each perfect subtree
+     * seen so far: one per set bit of the leaf count. Appending costs amortized O(1) hashes and
+     * the root O(log n), and the result equals the level-by-level construction above.
+     */
+    static final class Accumulator {
+        /** {@code peaks.get(h)} is the root over {@code 2^h} leaves, or null */
+        private final ArrayList<byte[]> peaks = new ArrayList<>();
+        private int size;
+
+        void add(byte[] leaf) {
+            byte[] carry = leaf;
+            int height = 0;
+            while (height < peaks.size() && peaks.get(height) != null) {
+                carry = node(peaks.get(height), carry);
+                peaks.set(height++, null);
+            }
+            if (height == peaks.size())
+                peaks.add(carry);
+            else
+                peaks.set(height, carry);
+            size++;
+        }
+
+        byte[] root() {
+            byte[] root = null;
+            for (byte[] peak : peaks) {
+                if (peak != null)
+                    root = root == null ? peak : node(peak, root);
+            }
+            return root == null ? EMPTY_ROOT : root;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    /** The complete tree, kept to hand out inclusion proofs */
+    static final class Tree {
+        /** {@code levels[0]} are the leaves, the last level holds the root alone */
+        private final byte[][][] levels;
+        /** first position of every leaf */
+        private final Map<ByteArrayWrapper, Integer> positions = new HashMap<>();
+
+        Tree(List<byte[]> leaves) {
+            List<byte[][]> built = new ArrayList<>();
+            byte[][] level = leaves.toArray(new byte[0][]);
+            built.add(level);
+            while (level.length > 1) {
+                byte[][] next = new byte[(level.length + 1) / 2][];
+                for (int i = 0; i < next.length; i++)
+                    next[i] = 2 * i + 1 < level.length ? node(level[2 * i], level[2 * i + 1]) : level[2 * i];
+                built.add(next);
+                level = next;
+            }
+            levels = built.toArray(new byte[0][][]);
+            for (int i = leaves.size() - 1; i >= 0; i--)
+                positions.put(new ByteArrayWrapper(leaves.get(i)), i);
+        }
+
+        int size() {
+            return levels[0].length;
+        }
+
+        byte[] root() {
+            return size() == 0 ? EMPTY_ROOT : levels[levels.length - 1][0];
+        }
+
+        /** @return the position of {@code leaf}, or -1 if the tree does not contain it */
+        int indexOf(byte[] leaf) {
+            Integer index = positions.get(new ByteArrayWrapper(leaf));
+            return index == null ? -1 : index;
+        }
+
+        /** @return the siblings on the way from leaf {@code index} to the root, bottom up */
+        byte[][] path(int index) {
+            List<byte[]> path = new ArrayList<>();
+            for (int h = 0; h < levels.length - 1; h++, index /= 2) {
+                int sibling = index ^ 1;
+                if (sibling < levels[h].length)
+                    path.add(levels[h][sibling]);
+            }
+            return path.toArray(new byte[0][]);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.jotterbach.blockchain;
+
+import java.util.Arrays;
+
+/**
+ * Proof that a transaction hash is leaf {@code index} of the Merkle tree of a block with
+ * {@code leafCount} transactions. It holds the O(log n) sibling hashes on the way to the root, so a
+ * light client that only knows the block header can check inclusion without the transactions.
+ */
+public final class MerkleProof {
+
+    private final byte[] txHash;
+    private final int index;
+    private final int leafCount;
+    private final byte[][] path;
+
+    public MerkleProof(byte[] txHash, int index, int leafCount, byte[][] path) {
+        this.txHash = txHash.clone();
+        this.index = index;
+        this.leafCount = leafCount;
+        this.path = new byte[path.length][];
+        for (int i = 0; i < path.length; i++)
+            this.path[i] = path[i].clone();
+    }
+
+    public byte[] getTxHash() {
+        return txHash.clone();
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getLeafCount() {
+        return leafCount;
+    }
+
+    /** @return the sibling hashes from the leaf up to the root */
+    public byte[][] getPath() {
+        byte[][] copy = new byte[path.length][];
+        for (int i = 0; i < path.length; i++)
+            copy[i] = path[i].clone();
+        return copy;
+    }
+
+    /** @return the number of sibling hashes in the proof */
+    public int size() {
+        return path.length;
+    }
+
+    /**
+     * @return the Merkle root the proof leads to, or null if its shape does not fit
+     *         {@code leafCount}
+     */
+    public byte[] computeRoot() {
+        if (index < 0 || index >= leafCount)
+            return null;
+        byte[] node = Merkle.leaf(txHash);
+        int next = 0;
+        // a node without a sibling is carried up the level unchanged
+        for (int i = index, width = leafCount; width > 1; i /= 2, width = (width + 1) / 2) {
+            if ((i & 1) == 1) {
+                if (next == path.length)
+                    return null;
+                node = Merkle.node(path[next++], node);
+            } else if (i + 1 < width) {
+                if (next == path.length)
+                    return null;
+                node = Merkle.node(node, path[next++]);
+            }
+        }
+        return next == path.length ? node : null;
+    }
+
+    /**
+     * @return true if this proof shows that the transaction is in the tree with root
+     *         {@code merkleRoot}. The leaf count is taken from the proof, so a caller that knows the
+     *         number of transactions must check it as well.
+     */
+    public boolean verify(byte[] merkleRoot) {
+        byte[] root = computeRoot();
+        return root != null && Arrays.equals(root, merkleRoot);
+    }
+}
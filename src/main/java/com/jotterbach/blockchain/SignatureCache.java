@@ -0,0 +1,156 @@
+package com.jotterbach.blockchain;
+
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of successful signature checks, keyed by the hash of the raw transaction, the
+ * index of the input and the public key of the output it spends. The raw transaction includes all
+ * signatures, so a transaction only hits the cache if its content is the one that was verified.
+ * The same transaction is verified when it enters the pool, when a block is assembled and again
+ * for every fork that includes it; only the first of these has to pay for RSA.
+ *
+ * <p>The cache is split into independently locked segments, each evicting its least recently used
+ * entry once full, so concurrent handlers rarely contend.
+ */
+public class SignatureCache {
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /** Creates a cache holding at most roughly {@code capacity} verified signatures */
+    public SignatureCache(int capacity) {
+        int perSegment = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment(perSegment);
+    }
+
+    /**
+     * @return true if the signature of input {@code index} of the raw transaction hashing to
+     *         {@code txHash} verified under {@code key}
+     */
+    public boolean contains(byte[] txHash, int index, PublicKey key) {
+        if (txHash == null)
+            return false;
+        Key k = new Key(txHash, index, key);
+        Segment segment = segmentFor(k);
+        boolean hit;
+        synchronized (segment) {
+            hit = segment.get(k) != null;
+        }
+        if (hit)
+            hits.increment();
+        else
+            misses.increment();
+        return hit;
+    }
+
+    /**
+     * Records that the signature of input {@code index} of the raw transaction hashing to
+     * {@code txHash} verified under {@code key}
+     */
+    public void put(byte[] txHash, int index, PublicKey key) {
+        if (txHash == null)
+            return;
+        Key k = new Key(Arrays.copyOf(txHash, txHash.length), index, key);
+        Segment segment = segmentFor(k);
+        synchronized (segment) {
+            segment.put(k, Boolean.TRUE);
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    private Segment segmentFor(Key k) {
+        int h = k.hash ^ (k.hash >>> 16);
+        return segments[h & (SEGMENTS - 1)];
+    }
+
+    private class Segment extends LinkedHashMap<Key, Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+            if (size() <= capacity)
+                return false;
+            evictions.increment();
+            return true;
+        }
+    }
+
+    private static class Key {
+        private final byte[] txHash;
+        private final int index;
+        private final PublicKey key;
+        private final int hash;
+
+        Key(byte[] txHash, int index, PublicKey key) {
+            this.txHash = txHash;
+            this.index = index;
+            this.key = key;
+            int h = Arrays.hashCode(txHash);
+            h = h * 31 + index;
+            h = h * 31 + key.hashCode();
+            this.hash = h;
+        }
+
+        public boolean equals(Object other) {
+            if (other == null) {
+                return false;
+            }
+            if (getClass() != other.getClass()) {
+                return false;
+            }
+            Key k = (Key) other;
+            return hash == k.hash && index == k.index && Arrays.equals(txHash, k.txHash) && key.equals(k.key);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.jotterbach.blockchain;
+
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Verifies every input signature of a batch of transactions on an executor before
+ * {@link TxHandler#handleTxs} runs its sequential double-spend pass. Each input is checked against
+ * the output it claims, taken either from the UTXO pool or from another transaction of the same
+ * batch, which is exactly the output the sequential pass would see if it got that far.
+ *
+ * <p>Successful checks are remembered in a {@link SignatureCache}, shared by default between all
+ * verifiers, so a transaction seen again in a later batch or on another fork is not re-verified.
+ * Checks are looked up by the hash of the raw transaction, which covers every signature, rather
+ * than by {@link Transaction#getHash()}, which is whatever the caller set.
+ */
+public class SignatureVerifier {
+
+    /** Number of signature checks handed to the executor as a single task */
+    private static final int CHUNK_SIZE = 16;
+
+    private static final SignatureCache SHARED_CACHE = new SignatureCache(SignatureCache.DEFAULT_CAPACITY);
+
+    private final ExecutorService executor;
+    private final SignatureCache cache;
+
+    /** Creates a verifier running on the common fork-join pool */
+    public SignatureVerifier() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /** Creates a verifier running on {@code executor}, e.g. a fork-join or virtual-thread executor */
+    public SignatureVerifier(ExecutorService executor) {
+        this(executor, SHARED_CACHE);
+    }
+
+    /** Creates a verifier running on {@code executor} and remembering its results in {@code cache} */
+    public SignatureVerifier(ExecutorService executor, SignatureCache cache) {
+        this.executor = executor;
+        this.cache = cache;
+    }
+
+    /** @return the cache shared by all verifiers not given one explicitly */
+    public static SignatureCache sharedCache() {
+        return SHARED_CACHE;
+    }
+
+    public SignatureCache getCache() {
+        return cache;
+    }
+
+    /** @return true if input {@code index} of {@code tx} carries a valid signature by the owner of {@code spent} */
+    public boolean verify(Transaction tx, int index, Transaction.Output spent) {
+        if (cache.contains(tx.rawTxHash(), index, spent.address))
+            return true;
+        boolean valid = Crypto.verifySignature(spent.address, tx.getRawDataToSign(index), tx.getInput(index).getSignature());
+        if (valid)
+            cache.put(tx.rawTxHash(), index, spent.address);
+        return valid;
+    }
+
+    /** Outcome of the signature checks of one transaction */
+    static class Verdict {
+        /** the outputs each input was checked against, null if it could not be resolved */
+        final Transaction.Output[] checkedAgainst;
+        final boolean[] valid;
+
+        Verdict(int numInputs) {
+            checkedAgainst = new Transaction.Output[numInputs];
+            valid = new boolean[numInputs];
+        }
+
+        /**
+         * @return {@code Boolean.TRUE}/{@code FALSE} if input {@code index} was checked against the
+         *         address of {@code output}, null if the result does not apply and it must be
+         *         checked again
+         */
+        Boolean get(int index, Transaction.Output output) {
+            // pools may hand out a new output on every lookup, but the same address instance
+            if (checkedAgainst[index] == null || checkedAgainst[index].address != output.address)
+                return null;
+            return valid[index];
+        }
+    }
+
+    /** @return the verdicts for every transaction in {@code txs}, keyed by identity */
+    Map<Transaction, Verdict> verifyAll(Transaction[] txs, UTXOPool utxoPool) {
+        Map<UTXO, Transaction.Output> batchOutputs = new HashMap<>();
+        for (Transaction tx : txs) {
+            if (tx.getHash() == null)
+                continue;
+            for (int i = 0; i < tx.numOutputs(); i++)
+                batchOutputs.put(new UTXO(tx.getHash(), i), tx.getOutput(i));
+        }
+
+        Map<Transaction, Verdict> verdicts = new IdentityHashMap<>();
+        List<Check> checks = new ArrayList<>();
+        for (Transaction tx : txs) {
+            Verdict verdict = new Verdict(tx.numInputs());
+            verdicts.put(tx, verdict);
+            for (int i = 0; i < tx.numInputs(); i++) {
+                Transaction.Input input = tx.getInput(i);
+                if (input.prevTxHash == null || input.getSignature() == null)
+                    continue;
+                Transaction.Output output = utxoPool.getTxOutput(input.prevTxHash, input.outputIndex);
+                if (output == null)
+                    output = batchOutputs.get(new UTXO(input.prevTxHash, input.outputIndex));
+                if (output == null)
+                    continue;
+
+                verdict.checkedAgainst[i] = output;
+                if (cache.contains(tx.rawTxHash(), i, output.address))
+                    verdict.valid[i] = true;
+                else
+                    checks.add(new Check(tx, i, output.address, verdict));
+            }
+        }
+        run(checks);
+        return verdicts;
+    }
+
+    /** A single input signature to check */
+    private static class Check {
+        final Transaction tx;
+        final int index;
+        final PublicKey address;
+        final Verdict verdict;
+
+        Check(Transaction tx, int index, PublicKey address, Verdict verdict) {
+            this.tx = tx;
+            this.index = index;
+            this.address = address;
+            this.verdict = verdict;
+        }
+    }
+
+    private void run(List<Check> checks) {
+        if (checks.size() <= 1) {
+            verifyChunk(checks);
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int from = 0; from < checks.size(); from += CHUNK_SIZE) {
+            List<Check> chunk = checks.subList(from, Math.min(from + CHUNK_SIZE, checks.size()));
+            tasks.add(() -> {
+                verifyChunk(chunk);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> f : executor.invokeAll(tasks))
+                f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("signature verification interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("signature verification failed", e.getCause());
+        }
+    }
+
+    private void verifyChunk(List<Check> chunk) {
+        PublicKey[] keys = new PublicKey[chunk.size()];
+        byte[][] messages = new byte[chunk.size()][];
+        byte[][] signatures = new byte[chunk.size()][];
+        for (int i = 0; i < keys.length; i++) {
+            Check c = chunk.get(i);
+            keys[i] = c.address;
+            messages[i] = c.tx.getRawDataToSign(c.index);
+            signatures[i] = c.tx.getInput(c.index).getSignature();
+        }
+        boolean[] valid = Crypto.verifyAll(keys, messages, signatures);
+        for (int i = 0; i < keys.length; i++) {
+            Check c = chunk.get(i);
+            c.verdict.valid[c.index] = valid[i];
+            if (valid[i])
+                cache.put(c.tx.rawTxHash(), c.index, c.address);
+        }
+    }
+}
@@ -2,21 +2,25 @@ package com.jotterbach.blockchain;
 
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
-import java.security.interfaces.RSAPublicKey;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 public class Transaction {
 
+    /**
+     * Input of this transaction. Only its signature can change, and only through
+     * {@link #addSignature}, which drops the encodings of the transaction; do not modify the arrays.
+     */
     public class Input {
         /** hash of the Transaction whose output is being used */
-        public byte[] prevTxHash;
+        public final byte[] prevTxHash;
         /** used output's index in the previous transaction */
-        public int outputIndex;
+        public final int outputIndex;
         /** the signature produced to check validity */
-        public byte[] signature;
+        private byte[] signature;
 
         public Input(byte[] prevHash, int index) {
             if (prevHash == null)
@@ -26,11 +30,16 @@ public class Transaction {
             outputIndex = index;
         }
 
+        public byte[] getSignature() {
+            return signature;
+        }
+
         public void addSignature(byte[] sig) {
             if (sig == null)
                 signature = null;
             else
                 signature = Arrays.copyOf(sig, sig.length);
+            invalidate();
         }
 
         public boolean equals(Object other) {
@@ -69,11 +78,14 @@ public class Transaction {
         }
     }
 
+    /** Output of this transaction; it never changes */
     public class Output {
         /** value in bitcoins of the output */
-        public double value;
+        public final double value;
         /** the address or public key of the recipient */
-        public PublicKey address;
+        public final PublicKey address;
+        /** interned form of {@code address}, resolved on first use */
+        private Address interned;
 
         public Output(double v, PublicKey addr) {
             value = v;
@@ -92,22 +104,26 @@ public class Transaction {
 
             if (value != op.value)
                 return false;
-            if (!((RSAPublicKey) address).getPublicExponent().equals(
-                    ((RSAPublicKey) op.address).getPublicExponent()))
-                return false;
-            if (!((RSAPublicKey) address).getModulus().equals(
-                    ((RSAPublicKey) op.address).getModulus()))
-                return false;
-            return true;
+            // same exponent and modulus
+            return getAddress() == op.getAddress();
         }
 
         public int hashCode() {
             int hash = 1;
             hash = hash * 17 + (int) value * 10000;
-            hash = hash * 31 + ((RSAPublicKey) address).getPublicExponent().hashCode();
-            hash = hash * 31 + ((RSAPublicKey) address).getModulus().hashCode();
+            hash = hash * 31 + getAddress().hashCode();
             return hash;
         }
+
+        /** @return the interned form of {@link #address} */
+        public Address getAddress() {
+            Address a = interned;
+            if (a == null) {
+                a = Address.of(address);
+                interned = a;
+            }
+            return a;
+        }
     }
 
     /** hash of the transaction, its unique id */
@@ -116,6 +132,17 @@ public class Transaction {
     private ArrayList<Output> outputs;
     private boolean coinbase;
 
+    /*
+     * Encodings computed on first use and dropped by every mutating method of this class and by
+     * Input.addSignature, the only ways to change inputs and outputs. Readers on several threads
+     * may race to fill a cache; they all store the same bytes.
+     */
+    /** encoding of all outputs, the common tail of the raw transaction and every data to sign */
+    private volatile byte[] rawOutputs;
+    private volatile byte[] rawTx;
+    /** SHA-256 of {@code rawTx} */
+    private volatile byte[] rawTxHash;
+
     public Transaction() {
         inputs = new ArrayList<Input>();
         outputs = new ArrayList<Output>();
@@ -124,9 +151,19 @@ public class Transaction {
 
     public Transaction(Transaction tx) {
         hash = tx.hash.clone();
-        inputs = new ArrayList<Input>(tx.inputs);
+        // inputs belong to the transaction whose encodings they drop, so they are copied; outputs
+        // never change and are shared
+        inputs = new ArrayList<Input>(tx.inputs.size());
+        for (Input in : tx.inputs) {
+            Input copy = new Input(in.prevTxHash, in.outputIndex);
+            copy.signature = in.signature;
+            inputs.add(copy);
+        }
         outputs = new ArrayList<Output>(tx.outputs);
         coinbase = false;
+        rawOutputs = tx.rawOutputs;
+        rawTx = tx.rawTx;
+        rawTxHash = tx.rawTxHash;
     }
 
     /** create a coinbase transaction of value {@code coin} and calls finalize on it */
@@ -145,15 +182,19 @@ public class Transaction {
     public void addInput(byte[] prevTxHash, int outputIndex) {
         Input in = new Input(prevTxHash, outputIndex);
         inputs.add(in);
+        invalidate();
     }
 
     public void addOutput(double value, PublicKey address) {
         Output op = new Output(value, address);
         outputs.add(op);
+        rawOutputs = null;
+        invalidate();
     }
 
     public void removeInput(int index) {
         inputs.remove(index);
+        invalidate();
     }
 
     public void removeInput(UTXO ut) {
@@ -162,6 +203,7 @@ public class Transaction {
             UTXO u = new UTXO(in.prevTxHash, in.outputIndex);
             if (u.equals(ut)) {
                 inputs.remove(i);
+                invalidate();
                 return;
             }
         }
@@ -169,37 +211,39 @@ public class Transaction {
 
     public byte[] getRawDataToSign(int index) {
         // ith input and all outputs
-        ArrayList<Byte> sigData = new ArrayList<Byte>();
         if (index > inputs.size())
             return null;
-        Input in = inputs.get(index);
-        byte[] prevTxHash = in.prevTxHash;
-        ByteBuffer b = ByteBuffer.allocate(Integer.SIZE / 8);
-        b.putInt(in.outputIndex);
-        byte[] outputIndex = b.array();
-        if (prevTxHash != null)
-            for (int i = 0; i < prevTxHash.length; i++)
-                sigData.add(prevTxHash[i]);
-        for (int i = 0; i < outputIndex.length; i++)
-            sigData.add(outputIndex[i]);
-        for (Output op : outputs) {
-            ByteBuffer bo = ByteBuffer.allocate(Double.SIZE / 8);
-            bo.putDouble(op.value);
-            byte[] value = bo.array();
-            byte[] addressExponent = ((RSAPublicKey) op.address).getPublicExponent().toByteArray();
-            byte[] addressModulus = ((RSAPublicKey) op.address).getModulus().toByteArray();
-            for (int i = 0; i < value.length; i++)
-                sigData.add(value[i]);
-            for (int i = 0; i < addressExponent.length; i++)
-                sigData.add(addressExponent[i]);
-            for (int i = 0; i < addressModulus.length; i++)
-                sigData.add(addressModulus[i]);
-        }
-        byte[] sigD = new byte[sigData.size()];
-        int i = 0;
-        for (Byte sb : sigData)
-            sigD[i++] = sb;
-        return sigD;
+        ByteBuffer sigData = ByteBuffer.allocate(getRawDataToSignSize(index));
+        writeRawDataToSign(index, sigData);
+        return sigData.array();
+    }
+
+    /**
+     * @return the data to sign of every input, in input order. The outputs, which every one of
+     *         them ends with, are encoded only once.
+     */
+    public byte[][] getRawDataToSign() {
+        byte[][] sigData = new byte[inputs.size()][];
+        for (int i = 0; i < sigData.length; i++)
+            sigData[i] = getRawDataToSign(i);
+        return sigData;
+    }
+
+    /** @return the number of bytes {@link #getRawDataToSign(int)} produces for input {@code index} */
+    public int getRawDataToSignSize(int index) {
+        return inputSize(inputs.get(index), false) + rawOutputs().length;
+    }
+
+    /** Writes the data to sign for input {@code index} at the current position of {@code out} */
+    public void writeRawDataToSign(int index, ByteBuffer out) {
+        encodeInput(inputs.get(index), false, TxEncoder.of(out));
+        out.put(rawOutputs());
+    }
+
+    /** Feeds the data to sign for input {@code index} into {@code md} without materializing it */
+    public void digestRawDataToSign(int index, MessageDigest md) {
+        encodeInput(inputs.get(index), false, TxEncoder.of(md));
+        md.update(rawOutputs());
     }
 
     public void addSignature(byte[] signature, int index) {
@@ -207,50 +251,102 @@ public class Transaction {
     }
 
     public byte[] getRawTx() {
-        ArrayList<Byte> rawTx = new ArrayList<Byte>();
-        for (Input in : inputs) {
-            byte[] prevTxHash = in.prevTxHash;
-            ByteBuffer b = ByteBuffer.allocate(Integer.SIZE / 8);
-            b.putInt(in.outputIndex);
-            byte[] outputIndex = b.array();
-            byte[] signature = in.signature;
-            if (prevTxHash != null)
-                for (int i = 0; i < prevTxHash.length; i++)
-                    rawTx.add(prevTxHash[i]);
-            for (int i = 0; i < outputIndex.length; i++)
-                rawTx.add(outputIndex[i]);
-            if (signature != null)
-                for (int i = 0; i < signature.length; i++)
-                    rawTx.add(signature[i]);
+        return rawTx().clone();
+    }
+
+    /** @return the number of bytes {@link #getRawTx()} produces */
+    public int getRawTxSize() {
+        return rawTx().length;
+    }
+
+    /** Writes the raw transaction at the current position of {@code out} */
+    public void writeRawTx(ByteBuffer out) {
+        out.put(rawTx());
+    }
+
+    /** Feeds the raw transaction into {@code md} without materializing it */
+    public void digestRawTx(MessageDigest md) {
+        md.update(rawTx());
+    }
+
+    /** Drops the cached raw transaction and its hash; {@link #addOutput} also drops the outputs */
+    private void invalidate() {
+        rawTx = null;
+        rawTxHash = null;
+    }
+
+    /** @return the cached raw transaction; callers must not modify it */
+    private byte[] rawTx() {
+        byte[] raw = rawTx;
+        if (raw == null) {
+            byte[] tail = rawOutputs();
+            int size = tail.length;
+            for (Input in : inputs)
+                size += inputSize(in, true);
+            ByteBuffer buf = ByteBuffer.allocate(size);
+            TxEncoder enc = TxEncoder.of(buf);
+            for (Input in : inputs)
+                encodeInput(in, true, enc);
+            buf.put(tail);
+            raw = buf.array();
+            rawTx = raw;
         }
-        for (Output op : outputs) {
-            ByteBuffer b = ByteBuffer.allocate(Double.SIZE / 8);
-            b.putDouble(op.value);
-            byte[] value = b.array();
-            byte[] addressExponent = ((RSAPublicKey) op.address).getPublicExponent().toByteArray();
-            byte[] addressModulus = ((RSAPublicKey) op.address).getModulus().toByteArray();
-            for (int i = 0; i < value.length; i++)
-                rawTx.add(value[i]);
-            for (int i = 0; i < addressExponent.length; i++)
-                rawTx.add(addressExponent[i]);
-            for (int i = 0; i < addressModulus.length; i++)
-                rawTx.add(addressModulus[i]);
+        return raw;
+    }
+
+    /** @return the cached encoding of all outputs; callers must not modify it */
+    private byte[] rawOutputs() {
+        byte[] raw = rawOutputs;
+        if (raw == null) {
+            int size = 0;
+            for (Output op : outputs)
+                size += Double.BYTES + op.getAddress().encodedLength();
+            ByteBuffer buf = ByteBuffer.allocate(size);
+            TxEncoder enc = TxEncoder.of(buf);
+            for (Output op : outputs)
+                encodeOutput(op, enc);
+            raw = buf.array();
+            rawOutputs = raw;
         }
-        byte[] tx = new byte[rawTx.size()];
-        int i = 0;
-        for (Byte b : rawTx)
-            tx[i++] = b;
-        return tx;
+        return raw;
+    }
+
+    private static void encodeInput(Input in, boolean withSignature, TxEncoder enc) {
+        if (in.prevTxHash != null)
+            enc.putBytes(in.prevTxHash);
+        enc.putInt(in.outputIndex);
+        if (withSignature && in.signature != null)
+            enc.putBytes(in.signature);
+    }
+
+    private static void encodeOutput(Output op, TxEncoder enc) {
+        enc.putDouble(op.value);
+        op.getAddress().encode(enc);
+    }
+
+    private static int inputSize(Input in, boolean withSignature) {
+        int size = Integer.BYTES;
+        if (in.prevTxHash != null)
+            size += in.prevTxHash.length;
+        if (withSignature && in.signature != null)
+            size += in.signature.length;
+        return size;
     }
 
     public void finalize() {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            md.update(getRawTx());
-            hash = md.digest();
-        } catch (NoSuchAlgorithmException x) {
-            x.printStackTrace(System.err);
+        hash = rawTxHash().clone();
+    }
+
+    /** @return the cached hash of the raw transaction, whatever {@link #getHash()} says; do not modify */
+    byte[] rawTxHash() {
+        byte[] h = rawTxHash;
+        if (h == null) {
+            MessageDigest md = Crypto.sha256();
+            digestRawTx(md);
+            h = md.digest();
+            rawTxHash = h;
         }
+        return h;
     }
 
     public void setHash(byte[] h) {
@@ -261,12 +357,14 @@ public class Transaction {
         return hash;
     }
 
-    public ArrayList<Input> getInputs() {
-        return inputs;
+    /** @return a read-only view of the inputs */
+    public List<Input> getInputs() {
+        return Collections.unmodifiableList(inputs);
     }
 
-    public ArrayList<Output> getOutputs() {
-        return outputs;
+    /** @return a read-only view of the outputs */
+    public List<Output> getOutputs() {
+        return Collections.unmodifiableList(outputs);
     }
 
     public Input getInput(int index) {
@@ -1,39 +1,221 @@
 package com.jotterbach.blockchain;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Pool of unconfirmed transactions, ordered by fee rate (fee per byte of the raw transaction). The
+ * fee is fixed when a transaction is added: the value of its inputs, resolved against the given
+ * UTXO pool or the outputs of pooled transactions, minus the value of its outputs. Inputs that
+ * resolve to neither count as zero. The pool holds at most {@code maxTransactions} transactions and
+ * {@code maxBytes} bytes and makes room by evicting those with the lowest fee rate.
+ *
+ * <p>
+ * The pool is safe for use by many threads without outside locking. Transactions are held in a
+ * {@link ConcurrentHashMap} by hash, whose inserts and removals only lock the bin of their key,
+ * and ordered in a {@link ConcurrentSkipListSet}. Whoever puts an entry into or takes it out of
+ * the map also adds or removes it in the ordering and adjusts the byte count, so both follow the
+ * map. While threads race, the limits may be exceeded briefly and {@link #getTransactions()} is
+ * weakly consistent: it reflects some of the changes made while it runs, never lists a
+ * transaction twice and never one that was removed before it started.
+ */
 public class TransactionPool {
 
-    private HashMap<ByteArrayWrapper, Transaction> H;
+    public static final int DEFAULT_MAX_TRANSACTIONS = 50_000;
+    public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+    /**
+     * best first: highest fee rate, then highest fee, then by hash; the sequence number tells apart
+     * two entries of the same transaction while one replaces the other
+     */
+    private static final Comparator<Entry> BY_FEE_RATE = Comparator
+            .comparingDouble((Entry e) -> -e.feeRate)
+            .thenComparingDouble(e -> -e.fee)
+            .thenComparing(e -> e.tx.getHash(), TransactionPool::compareHashes)
+            .thenComparingLong(e -> e.seq);
+    private static final AtomicLong SEQ = new AtomicLong();
+
+    private final ConcurrentHashMap<ByteArrayWrapper, Entry> H;
+    private final ConcurrentSkipListSet<Entry> byFeeRate;
+    private final int maxTransactions;
+    private final long maxBytes;
+    private final AtomicLong bytes = new AtomicLong();
 
     public TransactionPool() {
-        H = new HashMap<ByteArrayWrapper, Transaction>();
+        this(DEFAULT_MAX_TRANSACTIONS, DEFAULT_MAX_BYTES);
+    }
+
+    public TransactionPool(int maxTransactions, long maxBytes) {
+        this.maxTransactions = maxTransactions;
+        this.maxBytes = maxBytes;
+        H = new ConcurrentHashMap<ByteArrayWrapper, Entry>();
+        byFeeRate = new ConcurrentSkipListSet<Entry>(BY_FEE_RATE);
     }
 
     public TransactionPool(TransactionPool txPool) {
-        H = new HashMap<ByteArrayWrapper, Transaction>(txPool.H);
+        maxTransactions = txPool.maxTransactions;
+        maxBytes = txPool.maxBytes;
+        H = new ConcurrentHashMap<ByteArrayWrapper, Entry>(txPool.H);
+        byFeeRate = new ConcurrentSkipListSet<Entry>(BY_FEE_RATE);
+        for (Entry entry : H.values()) {
+            byFeeRate.add(entry);
+            bytes.addAndGet(entry.size);
+        }
+    }
+
+    /** Same as {@link #addTransaction(Transaction, UTXOPool)}, resolving inputs against the pool only */
+    public boolean addTransaction(Transaction tx) {
+        return addTransaction(tx, null);
+    }
+
+    /**
+     * Adds {@code tx}, replacing a pooled transaction with the same hash, and evicts the
+     * transactions with the lowest fee rate while the pool is over its limits.
+     *
+     * @return false if {@code tx} itself had to be evicted, i.e. its fee rate is too low to
+     *         enter the full pool
+     */
+    public boolean addTransaction(Transaction tx, UTXOPool utxoPool) {
+        return addTransaction(tx, fee(tx, utxoPool));
     }
 
-    public void addTransaction(Transaction tx) {
+    /** Same as {@link #addTransaction(Transaction, UTXOPool)}, with the fee already known */
+    boolean addTransaction(Transaction tx, double fee) {
         ByteArrayWrapper hash = new ByteArrayWrapper(tx.getHash());
-        H.put(hash, tx);
+        Entry entry = new Entry(hash, tx, fee, tx.getRawTxSize());
+        Entry replaced = H.put(hash, entry);
+        if (replaced != null) {
+            byFeeRate.remove(replaced);
+            bytes.addAndGet(-replaced.size);
+        }
+        bytes.addAndGet(entry.size);
+        byFeeRate.add(entry);
+        // removed or replaced again before it got into the ordering
+        if (H.get(hash) != entry)
+            byFeeRate.remove(entry);
+        boolean kept = true;
+        while (H.size() > maxTransactions || bytes.get() > maxBytes) {
+            Entry worst = byFeeRate.pollLast();
+            if (worst == null)
+                break;
+            if (H.remove(worst.hash, worst)) {
+                bytes.addAndGet(-worst.size);
+                if (worst == entry)
+                    kept = false;
+            }
+        }
+        return kept;
     }
 
     public void removeTransaction(byte[] txHash) {
         ByteArrayWrapper hash = new ByteArrayWrapper(txHash);
-        H.remove(hash);
+        remove(hash);
+    }
+
+    /** Removes all of {@code txs}, e.g. the transactions of a block that was just accepted */
+    public void removeTransactions(Collection<Transaction> txs) {
+        for (Transaction tx : txs) {
+            if (tx.getHash() != null)
+                remove(new ByteArrayWrapper(tx.getHash()));
+        }
     }
 
     public Transaction getTransaction(byte[] txHash) {
         ByteArrayWrapper hash = new ByteArrayWrapper(txHash);
-        return H.get(hash);
+        Entry entry = H.get(hash);
+        return entry == null ? null : entry.tx;
     }
 
+    /** @return the fee {@code txHash} was added with, or NaN if it is not in the pool */
+    public double getFee(byte[] txHash) {
+        Entry entry = H.get(new ByteArrayWrapper(txHash));
+        return entry == null ? Double.NaN : entry.fee;
+    }
+
+    /** @return all transactions, highest fee rate first */
     public ArrayList<Transaction> getTransactions() {
-        ArrayList<Transaction> T = new ArrayList<Transaction>();
-        for (Transaction tx : H.values())
-            T.add(tx);
+        return getBestTransactions(Integer.MAX_VALUE);
+    }
+
+    /** @return the {@code k} transactions with the highest fee rate, best first */
+    public ArrayList<Transaction> getBestTransactions(int k) {
+        ArrayList<Transaction> T = new ArrayList<Transaction>(Math.min(k, H.size()));
+        Iterator<Entry> it = byFeeRate.iterator();
+        while (T.size() < k && it.hasNext()) {
+            Entry entry = it.next();
+            // skip entries whose removal from the ordering has not caught up with the map yet
+            if (H.get(entry.hash) == entry)
+                T.add(entry.tx);
+        }
         return T;
     }
+
+    /** @return the number of pooled transactions */
+    public int size() {
+        return H.size();
+    }
+
+    /** @return the total size of the raw pooled transactions, in bytes */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    private void remove(ByteArrayWrapper hash) {
+        Entry entry = H.remove(hash);
+        if (entry != null) {
+            byFeeRate.remove(entry);
+            bytes.addAndGet(-entry.size);
+        }
+    }
+
+    /** @return the fee of {@code tx} as {@link #addTransaction(Transaction, UTXOPool)} works it out */
+    double fee(Transaction tx, UTXOPool utxoPool) {
+        double fee = 0;
+        for (Transaction.Input in : tx.getInputs()) {
+            if (in.prevTxHash == null)
+                continue;
+            Transaction.Output spent = utxoPool == null ? null : utxoPool.getTxOutput(in.prevTxHash, in.outputIndex);
+            if (spent == null) {
+                Entry parent = H.get(new ByteArrayWrapper(in.prevTxHash));
+                spent = parent == null ? null : parent.tx.getOutput(in.outputIndex);
+            }
+            if (spent != null)
+                fee += spent.value;
+        }
+        for (Transaction.Output op : tx.getOutputs())
+            fee -= op.value;
+        return fee;
+    }
+
+    private static int compareHashes(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            int c = Integer.compare(a[i] & 0xff, b[i] & 0xff);
+            if (c != 0)
+                return c;
+        }
+        return Integer.compare(a.length, b.length);
+    }
+
+    private static final class Entry {
+        final ByteArrayWrapper hash;
+        final Transaction tx;
+        final double fee;
+        final int size;
+        final double feeRate;
+        final long seq = SEQ.incrementAndGet();
+
+        Entry(ByteArrayWrapper hash, Transaction tx, double fee, int size) {
+            this.hash = hash;
+            this.tx = tx;
+            this.fee = fee;
+            this.size = size;
+            this.feeRate = fee / size;
+        }
+    }
 }
@@ -0,0 +1,229 @@
+package com.jotterbach.blockchain;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dependencies within a batch of transactions, for {@link TxHandler#handleTxs}. A transaction
+ * depends on every other transaction of the batch whose output one of its inputs spends, and
+ * {@link #order()} lists each transaction after all of those. Everything is built from a hash
+ * index of the batch in O(n + inputs).
+ *
+ * <p>
+ * Each transaction is also scored by the fee rate of its package: itself plus everything in the
+ * batch that depends on it, directly or not. Where several transactions claim the same output,
+ * the one with the best package goes first, so a cheap parent of a well-paying child wins over a
+ * cheap rival on its own. A transaction reachable along several paths counts once per path.
+ */
+final class TxGraph {
+
+    private final int n;
+    /** {@code parents[parentStart[i]..parentStart[i + 1])} are the distinct in-batch parents of tx i */
+    private final int[] parentStart;
+    private final int[] parents;
+    private final double[] fee;
+    private final int[] size;
+    private final double[] packageFee;
+    private final long[] packageSize;
+    private final int[] order;
+
+    TxGraph(Transaction[] txs, UTXOPool utxoPool) {
+        n = txs.length;
+        Map<ByteArrayWrapper, Integer> index = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            byte[] hash = txs[i].getHash();
+            if (hash != null)
+                index.putIfAbsent(new ByteArrayWrapper(hash), i);
+        }
+
+        parentStart = new int[n + 1];
+        int[] parentOf = new int[inputCount(txs)];
+        int[] seen = new int[n];
+        Arrays.fill(seen, -1);
+        fee = new double[n];
+        size = new int[n];
+        int in = 0, edges = 0;
+        for (int i = 0; i < n; i++) {
+            for (Transaction.Input input : txs[i].getInputs()) {
+                Integer p = input.prevTxHash == null ? null : index.get(new ByteArrayWrapper(input.prevTxHash));
+                Transaction.Output spent;
+                if (p != null && p != i) {
+                    spent = input.outputIndex < txs[p].numOutputs() ? txs[p].getOutput(input.outputIndex) : null;
+                    if (seen[p] != i) {
+                        seen[p] = i;
+                        edges++;
+                    }
+                } else {
+                    p = -1;
+                    spent = input.prevTxHash == null ? null : utxoPool.getTxOutput(input.prevTxHash, input.outputIndex);
+                }
+                parentOf[in++] = p;
+                if (spent != null)
+                    fee[i] += spent.value;
+            }
+            for (Transaction.Output op : txs[i].getOutputs())
+                fee[i] -= op.value;
+            size[i] = txs[i].getRawTxSize();
+            parentStart[i + 1] = edges;
+        }
+
+        parents = new int[edges];
+        Arrays.fill(seen, -1);
+        in = 0;
+        int e = 0;
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < txs[i].numInputs(); k++) {
+                int p = parentOf[in++];
+                if (p >= 0 && seen[p] != i) {
+                    seen[p] = i;
+                    parents[e++] = p;
+                }
+            }
+        }
+
+        // descendant packages, children before parents
+        int[] byDependencies = stableOrder(parentStart, parents, null);
+        packageFee = fee.clone();
+        packageSize = new long[n];
+        for (int i = 0; i < n; i++)
+            packageSize[i] = size[i];
+        for (int k = n - 1; k >= 0; k--) {
+            int c = byDependencies[k];
+            for (int j = parentStart[c]; j < parentStart[c + 1]; j++) {
+                packageFee[parents[j]] += packageFee[c];
+                packageSize[parents[j]] += packageSize[c];
+            }
+        }
+
+        order = stableOrder(parentStart, parents, conflictLosers(txs));
+    }
+
+    /** @return indices of the batch, every transaction after its in-batch parents */
+    int[] order() {
+        return order.clone();
+    }
+
+    /** @return the distinct transactions of the batch whose outputs transaction {@code i} spends */
+    int[] parents(int i) {
+        return Arrays.copyOfRange(parents, parentStart[i], parentStart[i + 1]);
+    }
+
+    /** @return the fee of transaction {@code i}; inputs resolving to nothing count as zero */
+    double fee(int i) {
+        return fee[i];
+    }
+
+    /** @return the fee rate of transaction {@code i} together with its in-batch descendants */
+    double packageFeeRate(int i) {
+        return packageFee[i] / packageSize[i];
+    }
+
+    private boolean beats(int a, int b) {
+        int c = Double.compare(packageFeeRate(a), packageFeeRate(b));
+        return c > 0 || c == 0 && a < b;
+    }
+
+    /**
+     * @return for each transaction, the transactions it must wait for because they win an output
+     *         it also claims, as {@code [start, dependencies]} in the layout of {@link #parents};
+     *         or null if no output is claimed twice
+     */
+    private int[][] conflictLosers(Transaction[] txs) {
+        Map<UTXO, Integer> best = new HashMap<>();
+        boolean conflicts = false;
+        for (int i = 0; i < n; i++) {
+            for (Transaction.Input input : txs[i].getInputs()) {
+                if (input.prevTxHash == null)
+                    continue;
+                Integer other = best.putIfAbsent(new UTXO(input.prevTxHash, input.outputIndex), i);
+                if (other != null && other != i) {
+                    conflicts = true;
+                    if (beats(i, other))
+                        best.put(new UTXO(input.prevTxHash, input.outputIndex), i);
+                }
+            }
+        }
+        if (!conflicts)
+            return null;
+
+        int[] start = new int[n + 1];
+        int[] winners = new int[inputCount(txs)];
+        int e = 0;
+        for (int i = 0; i < n; i++) {
+            for (Transaction.Input input : txs[i].getInputs()) {
+                if (input.prevTxHash == null)
+                    continue;
+                int winner = best.get(new UTXO(input.prevTxHash, input.outputIndex));
+                if (winner != i)
+                    winners[e++] = winner;
+            }
+            start[i + 1] = e;
+        }
+        return new int[][]{start, winners};
+    }
+
+    /**
+     * Topological order over "waits for" edges that stays as close to the given order as it can:
+     * a transaction keeps its place unless it waits for a later one, in which case it follows
+     * right after the last of those. Transactions caught in a cycle, which only conflicts can
+     * close, come last in their given order.
+     */
+    private int[] stableOrder(int[] start, int[] waitsFor, int[][] more) {
+        int[] pending = new int[n];
+        int[] dependentStart = new int[n + 2];
+        for (int i = 0; i < n; i++) {
+            pending[i] = start[i + 1] - start[i] + (more == null ? 0 : more[0][i + 1] - more[0][i]);
+            for (int j = start[i]; j < start[i + 1]; j++)
+                dependentStart[waitsFor[j] + 2]++;
+            if (more != null)
+                for (int j = more[0][i]; j < more[0][i + 1]; j++)
+                    dependentStart[more[1][j] + 2]++;
+        }
+        for (int i = 0; i < n; i++)
+            dependentStart[i + 2] += dependentStart[i + 1];
+        int[] dependents = new int[dependentStart[n + 1]];
+        for (int i = 0; i < n; i++) {
+            for (int j = start[i]; j < start[i + 1]; j++)
+                dependents[dependentStart[waitsFor[j] + 1]++] = i;
+            if (more != null)
+                for (int j = more[0][i]; j < more[0][i + 1]; j++)
+                    dependents[dependentStart[more[1][j] + 1]++] = i;
+        }
+
+        int[] order = new int[n];
+        boolean[] done = new boolean[n];
+        int[] stack = new int[n];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            if (done[i] || pending[i] != 0)
+                continue;
+            int sp = 0;
+            stack[sp++] = i;
+            done[i] = true;
+            while (sp > 0) {
+                int u = stack[--sp];
+                order[k++] = u;
+                for (int j = dependentStart[u]; j < dependentStart[u + 1]; j++) {
+                    int v = dependents[j];
+                    // later transactions are emitted when the outer loop gets to them
+                    if (--pending[v] == 0 && v < i && !done[v]) {
+                        done[v] = true;
+                        stack[sp++] = v;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < n; i++)
+            if (!done[i])
+                order[k++] = i;
+        return order;
+    }
+
+    private static int inputCount(Transaction[] txs) {
+        int inputs = 0;
+        for (Transaction tx : txs)
+            inputs += tx.numInputs();
+        return inputs;
+    }
+}
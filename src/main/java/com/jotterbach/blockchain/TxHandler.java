@@ -6,21 +6,32 @@ import com.jotterbach.blockchain.UTXO;
 import com.jotterbach.blockchain.UTXOPool;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 public class TxHandler {
 
     private UTXOPool utxoPool;
     private UTXOPool claimedUtxos = new UTXOPool();
     private List<Transaction.Input> claimedInputs = new ArrayList<>();
+    private SignatureVerifier verifier;
+    private Map<Transaction, SignatureVerifier.Verdict> verdicts = Collections.emptyMap();
+
     /**
      * Creates a public ledger whose current UTXOPool (collection of unspent transaction outputs) is
      * {@code utxoPool}. This should make a copy of utxoPool by using the UTXOPool(UTXOPool uPool)
      * constructor.
      */
     public TxHandler(UTXOPool utxoPool) {
+        this(utxoPool, new SignatureVerifier());
+    }
+
+    /** Same as {@link #TxHandler(UTXOPool)}, but verifies batch signatures with {@code verifier} */
+    public TxHandler(UTXOPool utxoPool, SignatureVerifier verifier) {
         this.utxoPool = new UTXOPool(utxoPool);
+        this.verifier = verifier;
     }
 
     /**
@@ -35,15 +46,9 @@ public class TxHandler {
     public boolean isValidTx(Transaction tx) {
         // IMPLEMENT THIS
 
-        List<UTXO> currentUtxos = tx.getInputs().stream()
-                // Ensure that the current inputs are still part of the UTXO pool.
-                // To do this we need to identify their hash of origin and the corresponding output index
-                .map(input -> new UTXO(input.prevTxHash, input.outputIndex))
-                .collect(Collectors.toList());
-
-        return allcurrentUtxosInUtxoPool(currentUtxos) &&
+        return allcurrentUtxosInUtxoPool(tx) &&
                 allSignaturesValid(tx) &&
-                noMultiplyClaimedUtxo(currentUtxos) &&
+                noMultiplyClaimedUtxo(tx) &&
                 allOutputValuesNonNegative(tx) &&
                 sumInputLargerEqualThanSumOutput(tx);
     }
@@ -52,29 +57,46 @@ public class TxHandler {
      * Handles each epoch by receiving an unordered array of proposed transactions, checking each
      * transaction for correctness, returning a mutually valid array of accepted transactions, and
      * updating the current UTXO pool as appropriate.
+     *
+     * <p>
+     * Transactions are checked in the given order, except that one spending the output of a later
+     * transaction in the batch is checked right after it, and that of several transactions
+     * claiming the same output the one with the best package fee rate is checked first. The
+     * accepted transactions are returned in the order they were checked; see {@link TxGraph}.
      */
     public Transaction[] handleTxs(Transaction[] possibleTxs) {
         // IMPLEMENT THIS
 
         List<Transaction> validTxn = new ArrayList<>();
+        // Check all signatures of the batch up front and in parallel; the pass below only looks
+        // up the results as long as an input still claims the output it was checked against.
+        verifyAll(possibleTxs);
         // Atomicity is the key. Streaming makes this hard! We need to ensure that a validated transaction is added
         // to the output Transactions and that the corresponding UTXO is removed at the same time so that a new TX will
         // not correctly validate!
-        for (Transaction tx : possibleTxs) {
+        for (int i : new TxGraph(possibleTxs, utxoPool).order()) {
+            Transaction tx = possibleTxs[i];
             if (isValidTx(tx)) {
                 validTxn.add(tx);
                 tx.getInputs().forEach(this::removeUtxo);
                 addNewUtxos(tx);
             }
         }
+        verdicts = Collections.emptyMap();
         return validTxn.toArray(new Transaction[validTxn.size()]);
     }
 
+    /**
+     * Checks the signatures of {@code txs} up front and in parallel, so that {@link #isValidTx}
+     * looks up their results until the next {@link #handleTxs}
+     */
+    void verifyAll(Transaction[] txs) {
+        verdicts = verifier.verifyAll(txs, utxoPool);
+    }
 
     private void removeUtxo (Transaction.Input input) {
         // Ensure to remove correct UTXO from the pool!
-        UTXO utxo = new UTXO(input.prevTxHash, input.outputIndex);
-        this.utxoPool.removeUTXO(utxo);
+        this.utxoPool.removeUTXO(input.prevTxHash, input.outputIndex);
     }
 
     private void addNewUtxos(Transaction tx) {
@@ -84,21 +106,30 @@ public class TxHandler {
         }
     }
 
-    private boolean allcurrentUtxosInUtxoPool(List<UTXO> currentUtxos) {
-        return currentUtxos.stream().allMatch(utxo -> this.utxoPool.contains(utxo));
+    private boolean allcurrentUtxosInUtxoPool(Transaction tx) {
+        // Ensure that the current inputs are still part of the UTXO pool.
+        // To do this we need to identify their hash of origin and the corresponding output index
+        for (Transaction.Input input : tx.getInputs()) {
+            if (input.prevTxHash == null || !this.utxoPool.contains(input.prevTxHash, input.outputIndex)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private boolean allSignaturesValid(Transaction tx) {
+        SignatureVerifier.Verdict verdict = verdicts.get(tx);
         for (int i = 0; i < tx.numInputs(); i++){
             Transaction.Input input = tx.getInput(i);
-            UTXO utxo = new UTXO(input.prevTxHash, input.outputIndex);
-            Transaction.Output previousTxOutput = this.utxoPool.getTxOutput(utxo);
+            Transaction.Output previousTxOutput = this.utxoPool.getTxOutput(input.prevTxHash, input.outputIndex);
             if (previousTxOutput == null) {
                 return false;
             }
-            if (!Crypto.verifySignature(previousTxOutput.address,
-                    tx.getRawDataToSign(i),
-                    input.signature)) {
+            Boolean valid = verdict == null ? null : verdict.get(i, previousTxOutput);
+            if (valid == null) {
+                valid = verifier.verify(tx, i, previousTxOutput);
+            }
+            if (!valid) {
                 return false;
             }
 
@@ -106,8 +137,25 @@ public class TxHandler {
         return true;
     }
 
-    private boolean noMultiplyClaimedUtxo(List<UTXO> currentUtxos) {
-        return currentUtxos.size() == currentUtxos.stream().distinct().count();
+    private boolean noMultiplyClaimedUtxo(Transaction tx) {
+        List<Transaction.Input> inputs = tx.getInputs();
+        if (inputs.size() > 16) {
+            return inputs.size() == inputs.stream()
+                    .map(input -> new UTXO(input.prevTxHash, input.outputIndex))
+                    .distinct()
+                    .count();
+        }
+        // few inputs are cheaper to compare pairwise than to wrap into UTXOs
+        for (int i = 1; i < inputs.size(); i++) {
+            Transaction.Input input = inputs.get(i);
+            for (int j = 0; j < i; j++) {
+                Transaction.Input other = inputs.get(j);
+                if (input.outputIndex == other.outputIndex && Arrays.equals(input.prevTxHash, other.prevTxHash)) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
     private boolean allOutputValuesNonNegative(Transaction tx) {
@@ -118,8 +166,7 @@ public class TxHandler {
         double currentTXOutputSum = tx.getOutputs().stream().mapToDouble(output -> output.value).sum();
 
         double inputTransactionSum = tx.getInputs().stream()
-                .map(input -> new UTXO(input.prevTxHash, input.outputIndex))
-                .mapToDouble(utxo -> this.utxoPool.getTxOutput(utxo).value)
+                .mapToDouble(input -> this.utxoPool.getTxOutput(input.prevTxHash, input.outputIndex).value)
                 .sum();
         return inputTransactionSum >= currentTXOutputSum;
     }
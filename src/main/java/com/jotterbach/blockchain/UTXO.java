@@ -10,6 +10,9 @@ public class UTXO implements Comparable<UTXO> {
     /** Index of the corresponding output in said transaction */
     private int index;
 
+    /** UTXOs are immutable and looked up all the time, so the hash code is computed only once */
+    private int hash;
+
     /**
      * Creates a new UTXO corresponding to the output with index <index> in the transaction whose
      * hash is {@code txHash}
@@ -17,6 +20,7 @@ public class UTXO implements Comparable<UTXO> {
     public UTXO(byte[] txHash, int index) {
         this.txHash = Arrays.copyOf(txHash, txHash.length);
         this.index = index;
+        this.hash = hashCode(txHash, index);
     }
 
     /** @return the transaction hash of this UTXO */
@@ -42,6 +46,8 @@ public class UTXO implements Comparable<UTXO> {
         }
 
         UTXO utxo = (UTXO) other;
+        if (this.hash != utxo.hash)
+            return false;
         byte[] hash = utxo.txHash;
         int in = utxo.index;
         if (hash.length != txHash.length || index != in)
@@ -58,12 +64,22 @@ public class UTXO implements Comparable<UTXO> {
      * utxo1.equals(utxo2) => utxo1.hashCode() == utxo2.hashCode())
      */
     public int hashCode() {
+        return hash;
+    }
+
+    /** @return the hash code of a UTXO with {@code txHash} and {@code index}, without creating it */
+    public static int hashCode(byte[] txHash, int index) {
         int hash = 1;
         hash = hash * 17 + index;
         hash = hash * 31 + Arrays.hashCode(txHash);
         return hash;
     }
 
+    /** @return true if this UTXO refers to output {@code index} of the transaction {@code txHash} */
+    public boolean matches(byte[] txHash, int index) {
+        return this.index == index && Arrays.equals(this.txHash, txHash);
+    }
+
     /** Compares this UTXO to the one specified by {@code utxo} */
     public int compareTo(UTXO utxo) {
         byte[] hash = utxo.txHash;
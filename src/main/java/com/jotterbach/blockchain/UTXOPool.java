@@ -1,24 +1,68 @@
 package com.jotterbach.blockchain;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Set;
 
-public class UTXOPool {
+public class UTXOPool implements Closeable {
 
     /**
-     * The current collection of UTXOs, with each one mapped to its corresponding transaction output
+     * The current collection of UTXOs, with each one mapped to its corresponding transaction output.
+     * By default this is a persistent trie, so copies share it and every update only replaces the
+     * changed path.
      */
-    private HashMap<UTXO, Transaction.Output> H;
+    private UTXOStore H;
 
     /** Creates a new empty UTXOPool */
     public UTXOPool() {
-        H = new HashMap<UTXO, Transaction.Output>();
+        this(new UTXOTrie());
     }
 
-    /** Creates a new UTXOPool that is a copy of {@code uPool} */
+    /**
+     * Creates a new UTXOPool that is a copy of {@code uPool}, backed by the same kind of store. This
+     * takes constant time unless {@code uPool} is {@link #compact()}.
+     */
     public UTXOPool(UTXOPool uPool) {
-        H = new HashMap<UTXO, Transaction.Output>(uPool.H);
+        this(uPool.H.copy());
+    }
+
+    private UTXOPool(UTXOStore store) {
+        H = store;
+    }
+
+    /**
+     * Creates a new empty UTXOPool that stores its UTXOs in a flat open-addressing table. It needs
+     * a fraction of the heap of the default pool and creates no objects per UTXO, but copying it
+     * takes time linear in its size. Meant for large sets that are updated in place.
+     */
+    public static UTXOPool compact() {
+        return new UTXOPool(new UTXOTable());
+    }
+
+    /**
+     * Opens the UTXOPool stored in the directory {@code dir}, or creates an empty one there. The
+     * pool keeps its UTXOs in memory-mapped files rather than on the heap, so it does not add to
+     * garbage collection pauses however large it grows, and it still holds its UTXOs after a
+     * restart. Outputs read from it are new objects that share their address. Copies take
+     * constant time: they keep the UTXOs they change on the heap and read all others through to
+     * this pool, so they see it as it was when they were taken. Close the pool once done with it.
+     */
+    public static UTXOPool mapped(Path dir) throws IOException {
+        return new UTXOPool(new MappedUTXOTable(dir));
+    }
+
+    /** Forces the UTXOs of a {@link #mapped} pool to disk; does nothing for pools on the heap */
+    public void flush() throws IOException {
+        H.flush();
+    }
+
+    /**
+     * Closes the files of a {@link #mapped} pool, after which copies of it hold their UTXOs on the
+     * heap; does nothing for pools on the heap. The pool may not be used afterwards.
+     */
+    public void close() throws IOException {
+        H.close();
     }
 
     /** Adds a mapping from UTXO {@code utxo} to transaction output @code{txOut} to the pool */
@@ -28,7 +72,12 @@ public class UTXOPool {
 
     /** Removes the UTXO {@code utxo} from the pool */
     public void removeUTXO(UTXO utxo) {
-        H.remove(utxo);
+        H.remove(utxo.getTxHash(), utxo.getIndex());
+    }
+
+    /** Removes output {@code index} of the transaction {@code txHash} from the pool */
+    public void removeUTXO(byte[] txHash, int index) {
+        H.remove(txHash, index);
     }
 
     /**
@@ -36,21 +85,36 @@ public class UTXOPool {
      *         not in the pool.
      */
     public Transaction.Output getTxOutput(UTXO ut) {
-        return H.get(ut);
+        return H.get(ut.getTxHash(), ut.getIndex());
+    }
+
+    /**
+     * @return output {@code index} of the transaction {@code txHash}, or null if it is not in the
+     *         pool. Same as {@link #getTxOutput(UTXO)}, without creating a UTXO.
+     */
+    public Transaction.Output getTxOutput(byte[] txHash, int index) {
+        return H.get(txHash, index);
     }
 
     /** @return true if UTXO {@code utxo} is in the pool and false otherwise */
     public boolean contains(UTXO utxo) {
-        return H.containsKey(utxo);
+        return H.get(utxo.getTxHash(), utxo.getIndex()) != null;
+    }
+
+    /** @return true if output {@code index} of the transaction {@code txHash} is in the pool */
+    public boolean contains(byte[] txHash, int index) {
+        return H.get(txHash, index) != null;
+    }
+
+    /** @return the number of UTXOs in the pool */
+    public int size() {
+        return H.size();
     }
 
     /** Returns an {@code ArrayList} of all UTXOs in the pool */
     public ArrayList<UTXO> getAllUTXO() {
-        Set<UTXO> setUTXO = H.keySet();
-        ArrayList<UTXO> allUTXO = new ArrayList<UTXO>();
-        for (UTXO ut : setUTXO) {
-            allUTXO.add(ut);
-        }
+        ArrayList<UTXO> allUTXO = new ArrayList<UTXO>(H.size());
+        H.forEach((ut, txOut) -> allUTXO.add(ut));
         return allUTXO;
     }
 }
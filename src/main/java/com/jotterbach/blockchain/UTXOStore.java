@@ -0,0 +1,33 @@
+package com.jotterbach.blockchain;
+
+import java.io.IOException;
+import java.util.function.BiConsumer;
+
+/**
+ * Storage behind a {@link UTXOPool}. Lookups take the transaction hash and output index directly,
+ * so checking an input never has to allocate a {@link UTXO}.
+ */
+interface UTXOStore {
+
+    /** @return the output stored for {@code (txHash, index)}, or null */
+    Transaction.Output get(byte[] txHash, int index);
+
+    void put(UTXO utxo, Transaction.Output txOut);
+
+    void remove(byte[] txHash, int index);
+
+    int size();
+
+    void forEach(BiConsumer<UTXO, Transaction.Output> action);
+
+    /** @return an independent store with the same contents */
+    UTXOStore copy();
+
+    /** Forces the contents to durable storage, if the store has any */
+    default void flush() throws IOException {
+    }
+
+    /** Releases the files or other resources of the store, which may not be used afterwards */
+    default void close() throws IOException {
+    }
+}
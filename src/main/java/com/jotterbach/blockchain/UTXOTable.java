@@ -0,0 +1,173 @@
+package com.jotterbach.blockchain;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Mutable open-addressing hash table from {@link UTXO} to {@link Transaction.Output}, laid out for
+ * 32-byte SHA-256 transaction hashes. Each key is stored inline as four longs plus the output index,
+ * so an entry costs no objects besides the output it maps to, and probing compares primitives
+ * only. Collisions are resolved by {@link LinearProbing}, and removals shift the following entries
+ * back instead of leaving tombstones.
+ *
+ * <p>Keys with a hash of any other length are kept in a {@link UTXOTrie} on the side. Unlike the
+ * trie, copying the table costs O(n).
+ */
+final class UTXOTable implements UTXOStore, LinearProbing.Slots {
+
+    private static final int HASH_LENGTH = 32;
+    private static final int WORDS = HASH_LENGTH / Long.BYTES;
+    private static final int MIN_CAPACITY = 16;
+
+    /** {@code WORDS} longs per slot, holding the transaction hash in big-endian order */
+    private long[] keys;
+    private int[] indices;
+    /** null marks an empty slot */
+    private Transaction.Output[] values;
+    private int mask;
+    private int threshold;
+    private int size;
+
+    /** UTXOs whose transaction hash is not {@code HASH_LENGTH} bytes long */
+    private UTXOStore other;
+
+    UTXOTable() {
+        allocate(MIN_CAPACITY);
+        other = new UTXOTrie();
+    }
+
+    private UTXOTable(UTXOTable table) {
+        keys = table.keys.clone();
+        indices = table.indices.clone();
+        values = table.values.clone();
+        mask = table.mask;
+        threshold = table.threshold;
+        size = table.size;
+        other = table.other.copy();
+    }
+
+    public int size() {
+        return size + other.size();
+    }
+
+    public Transaction.Output get(byte[] txHash, int index) {
+        if (txHash.length != HASH_LENGTH)
+            return other.get(txHash, index);
+        int slot = find(txHash, index);
+        return slot < 0 ? null : values[slot];
+    }
+
+    public void put(UTXO utxo, Transaction.Output txOut) {
+        byte[] txHash = utxo.getTxHash();
+        if (txHash.length != HASH_LENGTH) {
+            other.put(utxo, txOut);
+            return;
+        }
+        if (txOut == null) {
+            remove(txHash, utxo.getIndex());
+            return;
+        }
+        long k0 = LinearProbing.word(txHash, 0), k1 = LinearProbing.word(txHash, 1);
+        long k2 = LinearProbing.word(txHash, 2), k3 = LinearProbing.word(txHash, 3);
+        int slot = find(k0, k1, k2, k3, utxo.getIndex());
+        if (slot >= 0) {
+            values[slot] = txOut;
+            return;
+        }
+        slot = ~slot;
+        int k = slot * WORDS;
+        keys[k] = k0;
+        keys[k + 1] = k1;
+        keys[k + 2] = k2;
+        keys[k + 3] = k3;
+        indices[slot] = utxo.getIndex();
+        values[slot] = txOut;
+        if (++size > threshold)
+            resize();
+    }
+
+    public void remove(byte[] txHash, int index) {
+        if (txHash.length != HASH_LENGTH) {
+            other.remove(txHash, index);
+            return;
+        }
+        int hole = find(txHash, index);
+        if (hole < 0)
+            return;
+        size--;
+        LinearProbing.removeAt(this, mask, hole);
+    }
+
+    public void forEach(BiConsumer<UTXO, Transaction.Output> action) {
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] != null) {
+                byte[] txHash = new byte[HASH_LENGTH];
+                for (int i = 0; i < HASH_LENGTH; i++)
+                    txHash[i] = (byte) (keys[slot * WORDS + i / Long.BYTES] >>> (56 - 8 * (i % Long.BYTES)));
+                action.accept(new UTXO(txHash, indices[slot]), values[slot]);
+            }
+        }
+        other.forEach(action);
+    }
+
+    public UTXOStore copy() {
+        return new UTXOTable(this);
+    }
+
+    private int find(byte[] txHash, int index) {
+        return find(LinearProbing.word(txHash, 0), LinearProbing.word(txHash, 1), LinearProbing.word(txHash, 2),
+                LinearProbing.word(txHash, 3), index);
+    }
+
+    private int find(long k0, long k1, long k2, long k3, int index) {
+        return LinearProbing.find(this, mask, k0, k1, k2, k3, index);
+    }
+
+    public boolean isEmpty(int slot) {
+        return values[slot] == null;
+    }
+
+    public boolean holds(int slot, long k0, long k1, long k2, long k3, int index) {
+        int k = slot * WORDS;
+        return keys[k] == k0 && keys[k + 1] == k1 && keys[k + 2] == k2 && keys[k + 3] == k3
+                && indices[slot] == index;
+    }
+
+    public int homeOf(int slot) {
+        int k = slot * WORDS;
+        return LinearProbing.home(keys[k], keys[k + 1], keys[k + 2], keys[k + 3], indices[slot], mask);
+    }
+
+    public void move(int from, int to) {
+        System.arraycopy(keys, from * WORDS, keys, to * WORDS, WORDS);
+        indices[to] = indices[from];
+        values[to] = values[from];
+    }
+
+    public void clear(int slot) {
+        values[slot] = null;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        int[] oldIndices = indices;
+        Transaction.Output[] oldValues = values;
+        allocate(oldValues.length * 2);
+        for (int slot = 0; slot < oldValues.length; slot++) {
+            if (oldValues[slot] == null)
+                continue;
+            int k = slot * WORDS;
+            int to = ~find(oldKeys[k], oldKeys[k + 1], oldKeys[k + 2], oldKeys[k + 3], oldIndices[slot]);
+            System.arraycopy(oldKeys, k, keys, to * WORDS, WORDS);
+            indices[to] = oldIndices[slot];
+            values[to] = oldValues[slot];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity * WORDS];
+        indices = new int[capacity];
+        values = new Transaction.Output[capacity];
+        mask = capacity - 1;
+        threshold = capacity / 4 * 3;
+    }
+}
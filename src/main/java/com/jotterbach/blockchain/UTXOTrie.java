@@ -0,0 +1,274 @@
+package com.jotterbach.blockchain;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Persistent hash array mapped trie from {@link UTXO} to {@link Transaction.Output}. Nodes are
+ * never modified; {@link #put} and {@link #remove} replace the O(log32 n) nodes on the path to the
+ * changed key and share all others. Copying a {@link UTXOPool} is therefore free, and a pool
+ * derived from its parent block only pays for the outputs its block spends and creates.
+ */
+final class UTXOTrie implements UTXOStore {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final int MAX_SHIFT = 30;
+
+    private Node root;
+    private int size;
+
+    UTXOTrie() {
+        this(BitmapNode.EMPTY, 0);
+    }
+
+    private UTXOTrie(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Transaction.Output get(byte[] txHash, int index) {
+        return root.get(txHash, index, hash(UTXO.hashCode(txHash, index)), 0);
+    }
+
+    public void put(UTXO key, Transaction.Output value) {
+        boolean[] added = new boolean[1];
+        root = root.put(new Entry(key, hash(key.hashCode()), value), 0, added);
+        if (added[0])
+            size++;
+    }
+
+    public void remove(byte[] txHash, int index) {
+        Node newRoot = root.remove(txHash, index, hash(UTXO.hashCode(txHash, index)), 0);
+        if (newRoot == root)
+            return;
+        root = newRoot == null ? BitmapNode.EMPTY : newRoot;
+        size--;
+    }
+
+    public void forEach(BiConsumer<UTXO, Transaction.Output> action) {
+        root.forEach(action);
+    }
+
+    /** Shares all nodes with this trie, in constant time */
+    public UTXOStore copy() {
+        return new UTXOTrie(root, size);
+    }
+
+    private static int hash(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Entry {
+        final UTXO key;
+        final int hash;
+        final Transaction.Output value;
+
+        Entry(UTXO key, int hash, Transaction.Output value) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+        }
+
+        boolean matches(byte[] txHash, int index, int h) {
+            return hash == h && key.matches(txHash, index);
+        }
+    }
+
+    private abstract static class Node {
+        abstract Transaction.Output get(byte[] txHash, int index, int hash, int shift);
+
+        /** @return the updated node, or this node if nothing changed */
+        abstract Node put(Entry e, int shift, boolean[] added);
+
+        /** @return the updated node, this node if {@code key} is absent, or null if it became empty */
+        abstract Node remove(byte[] txHash, int index, int hash, int shift);
+
+        /** @return the only entry of this node if it holds nothing else, null otherwise */
+        abstract Entry soleEntry();
+
+        abstract void forEach(BiConsumer<UTXO, Transaction.Output> action);
+    }
+
+    /** Interior node; each slot holds either an {@link Entry} or a child {@link Node} */
+    private static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        private final int bitmap;
+        private final Object[] slots;
+
+        BitmapNode(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        Transaction.Output get(byte[] txHash, int index, int hash, int shift) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0)
+                return null;
+            Object slot = slots[index(bit)];
+            if (slot instanceof Node)
+                return ((Node) slot).get(txHash, index, hash, shift + BITS);
+            Entry e = (Entry) slot;
+            return e.matches(txHash, index, hash) ? e.value : null;
+        }
+
+        Node put(Entry e, int shift, boolean[] added) {
+            int bit = bit(e.hash, shift);
+            int idx = index(bit);
+            if ((bitmap & bit) == 0) {
+                added[0] = true;
+                Object[] newSlots = new Object[slots.length + 1];
+                System.arraycopy(slots, 0, newSlots, 0, idx);
+                newSlots[idx] = e;
+                System.arraycopy(slots, idx, newSlots, idx + 1, slots.length - idx);
+                return new BitmapNode(bitmap | bit, newSlots);
+            }
+            Object slot = slots[idx];
+            Object replacement;
+            if (slot instanceof Node) {
+                Node child = (Node) slot;
+                Node newChild = child.put(e, shift + BITS, added);
+                if (newChild == child)
+                    return this;
+                replacement = newChild;
+            } else {
+                Entry existing = (Entry) slot;
+                if (existing.hash == e.hash && existing.key.equals(e.key)) {
+                    if (existing.value == e.value)
+                        return this;
+                    replacement = e;
+                } else {
+                    added[0] = true;
+                    replacement = merge(existing, e, shift + BITS);
+                }
+            }
+            return new BitmapNode(bitmap, with(idx, replacement));
+        }
+
+        Node remove(byte[] txHash, int index, int hash, int shift) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0)
+                return this;
+            int idx = index(bit);
+            Object slot = slots[idx];
+            if (slot instanceof Node) {
+                Node child = (Node) slot;
+                Node newChild = child.remove(txHash, index, hash, shift + BITS);
+                if (newChild == child)
+                    return this;
+                if (newChild != null) {
+                    Entry sole = newChild.soleEntry();
+                    return new BitmapNode(bitmap, with(idx, sole != null ? sole : newChild));
+                }
+            } else if (!((Entry) slot).matches(txHash, index, hash)) {
+                return this;
+            }
+            if (slots.length == 1)
+                return null;
+            Object[] newSlots = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, newSlots, 0, idx);
+            System.arraycopy(slots, idx + 1, newSlots, idx, slots.length - idx - 1);
+            return new BitmapNode(bitmap & ~bit, newSlots);
+        }
+
+        Entry soleEntry() {
+            if (slots.length == 1 && slots[0] instanceof Entry)
+                return (Entry) slots[0];
+            return null;
+        }
+
+        void forEach(BiConsumer<UTXO, Transaction.Output> action) {
+            for (Object slot : slots) {
+                if (slot instanceof Node)
+                    ((Node) slot).forEach(action);
+                else
+                    action.accept(((Entry) slot).key, ((Entry) slot).value);
+            }
+        }
+
+        private Object[] with(int idx, Object slot) {
+            Object[] newSlots = slots.clone();
+            newSlots[idx] = slot;
+            return newSlots;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private static int bit(int hash, int shift) {
+            return 1 << ((hash >>> shift) & MASK);
+        }
+
+        private static Node merge(Entry a, Entry b, int shift) {
+            if (shift > MAX_SHIFT)
+                return new CollisionNode(new Entry[]{a, b});
+            int bitA = bit(a.hash, shift);
+            int bitB = bit(b.hash, shift);
+            if (bitA == bitB)
+                return new BitmapNode(bitA, new Object[]{merge(a, b, shift + BITS)});
+            Object[] pair = Integer.compareUnsigned(bitA, bitB) < 0 ? new Object[]{a, b} : new Object[]{b, a};
+            return new BitmapNode(bitA | bitB, pair);
+        }
+    }
+
+    /** Leaf for keys whose hashes are identical in all 32 bits */
+    private static final class CollisionNode extends Node {
+        private final Entry[] entries;
+
+        CollisionNode(Entry[] entries) {
+            this.entries = entries;
+        }
+
+        Transaction.Output get(byte[] txHash, int index, int hash, int shift) {
+            for (Entry e : entries)
+                if (e.matches(txHash, index, hash))
+                    return e.value;
+            return null;
+        }
+
+        Node put(Entry e, int shift, boolean[] added) {
+            for (int i = 0; i < entries.length; i++) {
+                if (entries[i].hash == e.hash && entries[i].key.equals(e.key)) {
+                    if (entries[i].value == e.value)
+                        return this;
+                    Entry[] newEntries = entries.clone();
+                    newEntries[i] = e;
+                    return new CollisionNode(newEntries);
+                }
+            }
+            added[0] = true;
+            Entry[] newEntries = new Entry[entries.length + 1];
+            System.arraycopy(entries, 0, newEntries, 0, entries.length);
+            newEntries[entries.length] = e;
+            return new CollisionNode(newEntries);
+        }
+
+        Node remove(byte[] txHash, int index, int hash, int shift) {
+            for (int i = 0; i < entries.length; i++) {
+                if (entries[i].matches(txHash, index, hash)) {
+                    if (entries.length == 1)
+                        return null;
+                    Entry[] newEntries = new Entry[entries.length - 1];
+                    System.arraycopy(entries, 0, newEntries, 0, i);
+                    System.arraycopy(entries, i + 1, newEntries, i, entries.length - i - 1);
+                    return new CollisionNode(newEntries);
+                }
+            }
+            return this;
+        }
+
+        Entry soleEntry() {
+            return entries.length == 1 ? entries[0] : null;
+        }
+
+        void forEach(BiConsumer<UTXO, Transaction.Output> action) {
+            for (Entry e : entries)
+                action.accept(e.key, e.value);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.jotterbach.scroogecoin;
 
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.Signature;
@@ -8,6 +9,26 @@ import java.security.SignatureException;
 
 public class Crypto {
 
+    /**
+     * Provider lookups are expensive compared to a single verification, so every thread keeps its
+     * own verifier and digest and re-initializes them instead of asking for new instances.
+     */
+    private static final ThreadLocal<Signature> VERIFIER = ThreadLocal.withInitial(() -> {
+        try {
+            return Signature.getInstance("SHA256withRSA");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
     /**
      * @return true is {@code signature} is a valid digital signature of {@code message} under the
      *         key {@code pubKey}. Internally, this uses RSA signature, but the student does not
@@ -15,16 +36,12 @@ public class Crypto {
      *         algorithm
      */
     public static boolean verifySignature(PublicKey pubKey, byte[] message, byte[] signature) {
-        Signature sig = null;
-        try {
-            sig = Signature.getInstance("SHA256withRSA");
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
+        Signature sig = VERIFIER.get();
         try {
             sig.initVerify(pubKey);
         } catch (InvalidKeyException e) {
             e.printStackTrace();
+            return false;
         }
         try {
             sig.update(message);
@@ -33,6 +50,49 @@ public class Crypto {
             e.printStackTrace();
         }
         return false;
+    }
 
+    /**
+     * Verifies {@code signatures[i]} of {@code messages[i]} under {@code pubKeys[i]} for all
+     * {@code i}, reusing one verifier and skipping its re-initialization for runs of the same key.
+     *
+     * @return the result of {@link #verifySignature} for every index
+     */
+    public static boolean[] verifyAll(PublicKey[] pubKeys, byte[][] messages, byte[][] signatures) {
+        if (pubKeys.length != messages.length || pubKeys.length != signatures.length)
+            throw new IllegalArgumentException("keys, messages and signatures differ in length");
+        boolean[] valid = new boolean[pubKeys.length];
+        Signature sig = VERIFIER.get();
+        PublicKey initialized = null;
+        for (int i = 0; i < pubKeys.length; i++) {
+            if (pubKeys[i] != initialized) {
+                try {
+                    sig.initVerify(pubKeys[i]);
+                    initialized = pubKeys[i];
+                } catch (InvalidKeyException e) {
+                    e.printStackTrace();
+                    initialized = null;
+                    continue;
+                }
+            }
+            try {
+                sig.update(messages[i]);
+                valid[i] = sig.verify(signatures[i]);
+            } catch (SignatureException e) {
+                e.printStackTrace();
+                initialized = null;
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * @return this thread's SHA-256 digest, reset and ready for use. It must be consumed with
+     *         {@code digest()} before the thread asks for it again.
+     */
+    public static MessageDigest sha256() {
+        MessageDigest md = SHA256.get();
+        md.reset();
+        return md;
     }
 }
@@ -4,7 +4,6 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 
 public class Transaction {
@@ -88,35 +87,26 @@ public class Transaction {
 
     public byte[] getRawDataToSign(int index) {
         // ith input and all outputs
-        ArrayList<Byte> sigData = new ArrayList<Byte>();
         if (index > inputs.size())
             return null;
-        Input in = inputs.get(index);
-        byte[] prevTxHash = in.prevTxHash;
-        ByteBuffer b = ByteBuffer.allocate(Integer.SIZE / 8);
-        b.putInt(in.outputIndex);
-        byte[] outputIndex = b.array();
-        if (prevTxHash != null)
-            for (int i = 0; i < prevTxHash.length; i++)
-                sigData.add(prevTxHash[i]);
-        for (int i = 0; i < outputIndex.length; i++)
-            sigData.add(outputIndex[i]);
-        for (Output op : outputs) {
-            ByteBuffer bo = ByteBuffer.allocate(Double.SIZE / 8);
-            bo.putDouble(op.value);
-            byte[] value = bo.array();
-            byte[] addressBytes = op.address.getEncoded();
-            for (int i = 0; i < value.length; i++)
-                sigData.add(value[i]);
-
-            for (int i = 0; i < addressBytes.length; i++)
-                sigData.add(addressBytes[i]);
-        }
-        byte[] sigD = new byte[sigData.size()];
-        int i = 0;
-        for (Byte sb : sigData)
-            sigD[i++] = sb;
-        return sigD;
+        ByteBuffer sigData = ByteBuffer.allocate(getRawDataToSignSize(index));
+        writeRawDataToSign(index, sigData);
+        return sigData.array();
+    }
+
+    /** @return the number of bytes {@link #getRawDataToSign(int)} produces for input {@code index} */
+    public int getRawDataToSignSize(int index) {
+        return inputSize(inputs.get(index), false) + outputsSize();
+    }
+
+    /** Writes the data to sign for input {@code index} at the current position of {@code out} */
+    public void writeRawDataToSign(int index, ByteBuffer out) {
+        encodeDataToSign(index, TxEncoder.of(out));
+    }
+
+    /** Feeds the data to sign for input {@code index} into {@code md} without materializing it */
+    public void digestRawDataToSign(int index, MessageDigest md) {
+        encodeDataToSign(index, TxEncoder.of(md));
     }
 
     public void addSignature(byte[] signature, int index) {
@@ -124,50 +114,75 @@ public class Transaction {
     }
 
     public byte[] getRawTx() {
-        ArrayList<Byte> rawTx = new ArrayList<Byte>();
-        for (Input in : inputs) {
-            byte[] prevTxHash = in.prevTxHash;
-            ByteBuffer b = ByteBuffer.allocate(Integer.SIZE / 8);
-            b.putInt(in.outputIndex);
-            byte[] outputIndex = b.array();
-            byte[] signature = in.signature;
-            if (prevTxHash != null)
-                for (int i = 0; i < prevTxHash.length; i++)
-                    rawTx.add(prevTxHash[i]);
-            for (int i = 0; i < outputIndex.length; i++)
-                rawTx.add(outputIndex[i]);
-            if (signature != null)
-                for (int i = 0; i < signature.length; i++)
-                    rawTx.add(signature[i]);
-        }
-        for (Output op : outputs) {
-            ByteBuffer b = ByteBuffer.allocate(Double.SIZE / 8);
-            b.putDouble(op.value);
-            byte[] value = b.array();
-            byte[] addressBytes = op.address.getEncoded();
-            for (int i = 0; i < value.length; i++) {
-                rawTx.add(value[i]);
-            }
-            for (int i = 0; i < addressBytes.length; i++) {
-                rawTx.add(addressBytes[i]);
-            }
+        ByteBuffer rawTx = ByteBuffer.allocate(getRawTxSize());
+        writeRawTx(rawTx);
+        return rawTx.array();
+    }
 
-        }
-        byte[] tx = new byte[rawTx.size()];
-        int i = 0;
-        for (Byte b : rawTx)
-            tx[i++] = b;
-        return tx;
+    /** @return the number of bytes {@link #getRawTx()} produces */
+    public int getRawTxSize() {
+        int size = 0;
+        for (Input in : inputs)
+            size += inputSize(in, true);
+        return size + outputsSize();
+    }
+
+    /** Writes the raw transaction at the current position of {@code out} */
+    public void writeRawTx(ByteBuffer out) {
+        encodeRawTx(TxEncoder.of(out));
+    }
+
+    /** Feeds the raw transaction into {@code md} without materializing it */
+    public void digestRawTx(MessageDigest md) {
+        encodeRawTx(TxEncoder.of(md));
+    }
+
+    private void encodeDataToSign(int index, TxEncoder enc) {
+        encodeInput(inputs.get(index), false, enc);
+        for (Output op : outputs)
+            encodeOutput(op, enc);
+    }
+
+    private void encodeRawTx(TxEncoder enc) {
+        for (Input in : inputs)
+            encodeInput(in, true, enc);
+        for (Output op : outputs)
+            encodeOutput(op, enc);
+    }
+
+    private static void encodeInput(Input in, boolean withSignature, TxEncoder enc) {
+        if (in.prevTxHash != null)
+            enc.putBytes(in.prevTxHash);
+        enc.putInt(in.outputIndex);
+        if (withSignature && in.signature != null)
+            enc.putBytes(in.signature);
+    }
+
+    private static void encodeOutput(Output op, TxEncoder enc) {
+        enc.putDouble(op.value);
+        enc.putBytes(op.address.getEncoded());
+    }
+
+    private static int inputSize(Input in, boolean withSignature) {
+        int size = Integer.BYTES;
+        if (in.prevTxHash != null)
+            size += in.prevTxHash.length;
+        if (withSignature && in.signature != null)
+            size += in.signature.length;
+        return size;
+    }
+
+    private int outputsSize() {
+        int size = 0;
+        for (Output op : outputs)
+            size += Double.BYTES + op.address.getEncoded().length;
+        return size;
     }
 
     public void finalize() {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            md.update(getRawTx());
-            hash = md.digest();
-        } catch (NoSuchAlgorithmException x) {
-            x.printStackTrace(System.err);
-        }
+        MessageDigest md = Crypto.sha256();
+        digestRawTx(md);
+        hash = md.digest();
     }
 
     public void setHash(byte[] h) {
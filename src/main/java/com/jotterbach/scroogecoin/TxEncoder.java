@@ -0,0 +1,57 @@
+package com.jotterbach.scroogecoin;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * Sink for the raw wire layout of a {@link Transaction}. The same encoding code can either fill a
+ * pre-sized {@code ByteBuffer} or feed a {@code MessageDigest} directly without ever
+ * materializing the bytes.
+ */
+abstract class TxEncoder {
+
+    abstract void putBytes(byte[] b);
+
+    abstract void putInt(int v);
+
+    abstract void putDouble(double v);
+
+    /** @return an encoder writing at the current position of {@code buf} */
+    static TxEncoder of(ByteBuffer buf) {
+        return new TxEncoder() {
+            void putBytes(byte[] b) {
+                buf.put(b);
+            }
+
+            void putInt(int v) {
+                buf.putInt(v);
+            }
+
+            void putDouble(double v) {
+                buf.putDouble(v);
+            }
+        };
+    }
+
+    /** @return an encoder updating {@code md} with every written byte */
+    static TxEncoder of(MessageDigest md) {
+        ByteBuffer scratch = ByteBuffer.allocate(Double.BYTES);
+        return new TxEncoder() {
+            void putBytes(byte[] b) {
+                md.update(b);
+            }
+
+            void putInt(int v) {
+                scratch.clear();
+                scratch.putInt(v);
+                md.update(scratch.array(), 0, Integer.BYTES);
+            }
+
+            void putDouble(double v) {
+                scratch.clear();
+                scratch.putDouble(v);
+                md.update(scratch.array(), 0, Double.BYTES);
+            }
+        };
+    }
+}
@@ -0,0 +1,57 @@
+package com.jotterbach.trustconsensus;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+/** The kinds of malicious node {@link Simulation} can mix into a network */
+public enum Adversary {
+    /** never proposes anything: {@link MaliciousNode} */
+    SILENT,
+    /** {@link FlipFlopNode} */
+    FLIP_FLOP,
+    /**
+     * floods its followers with repeated copies of the valid ids it has heard, not with bogus ids:
+     * {@link SybilNode}
+     */
+    SYBIL,
+    /** {@link SelectiveForwardingNode} */
+    SELECTIVE_FORWARDING;
+
+    /** Creates a node of this kind; {@code random} seeds the adversaries that draw numbers */
+    Node create(double p_graph, double p_malicious, double p_txDistribution, int numRounds, Random random) {
+        switch (this) {
+            case FLIP_FLOP:
+                return new FlipFlopNode(p_graph, p_malicious, p_txDistribution, numRounds);
+            case SYBIL:
+                return new SybilNode(p_graph, p_malicious, p_txDistribution, numRounds, random.nextLong());
+            case SELECTIVE_FORWARDING:
+                return new SelectiveForwardingNode(p_graph, p_malicious, p_txDistribution, numRounds,
+                        random.nextLong());
+            default:
+                return new MaliciousNode(p_graph, p_malicious, p_txDistribution, numRounds);
+        }
+    }
+
+    /** @return the mix of only silent nodes */
+    public static Map<Adversary, Double> silent() {
+        Map<Adversary, Double> mix = new EnumMap<>(Adversary.class);
+        mix.put(SILENT, 1.0);
+        return mix;
+    }
+
+    /**
+     * @return the mix described by {@code spec}, e.g. {@code "SYBIL=2,FLIP_FLOP=1"}, in which the
+     *         weights are relative
+     */
+    public static Map<Adversary, Double> parseMix(String spec) {
+        Map<Adversary, Double> mix = new EnumMap<>(Adversary.class);
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split("=");
+            if (kv.length != 2)
+                throw new IllegalArgumentException("expected KIND=weight, got " + part);
+            mix.put(valueOf(kv[0].trim().toUpperCase()), Double.parseDouble(kv[1]));
+        }
+        return mix;
+    }
+}
@@ -9,4 +9,17 @@ public class Candidate {
 		this.tx = tx;
 		this.sender = sender;
 	}
+
+	/** @return the candidate {@code txId} from {@code sender} as one {@code long}, sender in the high half */
+	public static long pack(int sender, int txId) {
+		return (long) sender << 32 | (txId & 0xFFFFFFFFL);
+	}
+
+	public static int sender(long packed) {
+		return (int) (packed >>> 32);
+	}
+
+	public static int txId(long packed) {
+		return (int) packed;
+	}
 }
\ No newline at end of file
@@ -1,8 +1,8 @@
 package com.jotterbach.trustconsensus;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 /* CompliantNode refers to a node that follows the rules (not malicious)*/
 public class CompliantNode implements Node {
@@ -12,11 +12,13 @@ public class CompliantNode implements Node {
     private double p_txDistribution;
     private int numRounds;
 
-    private boolean[] followees;
+    /** the nodes this node follows, in ascending order */
+    private int[] followees;
 
-    private Set<Transaction> pendingTransactions = new HashSet<>();
+    private IntSet pendingTransactions = new IntSet();
 
-    private Set<Integer> blacklist = new HashSet<>();
+    /** {@code blacklisted[k]} is true once followee {@code followees[k]} has been blacklisted */
+    private boolean[] blacklisted;
 
     public CompliantNode(double p_graph, double p_malicious, double p_txDistribution, int numRounds) {
         this.p_graph = p_graph;
@@ -26,48 +28,85 @@ public class CompliantNode implements Node {
     }
 
     public void setFollowees(boolean[] followees) {
+        int n = 0;
+        for (boolean follows : followees)
+            if (follows)
+                n++;
+        int[] compact = new int[n];
+        n = 0;
+        for (int i = 0; i < followees.length; i++)
+            if (followees[i])
+                compact[n++] = i;
+        setFollowees(compact, followees.length);
+    }
+
+    public void setFollowees(int[] followees, int numNodes) {
         this.followees = followees;
+        this.blacklisted = new boolean[followees.length];
     }
 
     public void setPendingTransaction(Set<Transaction> pendingTransactions) {
-        Set<Transaction> unseenTxn = pendingTransactions
-                .stream()
-                .filter(tx -> !this.pendingTransactions.contains(tx))
-                .collect(Collectors.toSet());
-        this.pendingTransactions.addAll(unseenTxn);
+        for (Transaction tx : pendingTransactions)
+            this.pendingTransactions.add(tx.id);
     }
 
     public Set<Transaction> sendToFollowers() {
-        Set<Transaction> txnToSend = new HashSet<>(this.pendingTransactions);
+        int[] ids = sendIdsToFollowers();
+        Set<Transaction> txnToSend = new HashSet<>(ids.length * 2);
+        for (int id : ids)
+            txnToSend.add(new Transaction(id));
+        return txnToSend;
+    }
+
+    public int[] sendIdsToFollowers() {
+        int[] txnToSend = this.pendingTransactions.toSortedArray();
         this.pendingTransactions.clear();
         return txnToSend;
     }
 
     public void receiveFromFollowees(Set<Candidate> candidates) {
-        updateBlacklist(candidates);
-        Set<Candidate> validCandidates = candidates
-                .stream()
-                .filter(candidate -> this.followees[candidate.sender] && !this.blacklist.contains(candidate.sender))
-                .collect(Collectors.toSet());
+        long[] packed = new long[candidates.size()];
+        int n = 0;
+        for (Candidate candidate : candidates)
+            packed[n++] = Candidate.pack(candidate.sender, candidate.tx.id);
+        receiveFromFollowees(packed, n);
+    }
 
-        validCandidates.forEach(candidate -> this.pendingTransactions.add(candidate.tx));
+    public void receiveFromFollowees(long[] candidates, int count) {
+        updateBlacklist(candidates, count);
+        int sender = -1, followee = -1;
+        for (int k = 0; k < count; k++) {
+            // candidates usually come grouped by sender
+            if (Candidate.sender(candidates[k]) != sender) {
+                sender = Candidate.sender(candidates[k]);
+                followee = Arrays.binarySearch(this.followees, sender);
+            }
+            if (followee >= 0 && !this.blacklisted[followee])
+                this.pendingTransactions.add(Candidate.txId(candidates[k]));
+        }
     }
 
-    private void updateBlacklist(Set<Candidate> candidates) {
+    private void updateBlacklist(long[] candidates, int count) {
         // Need to blacklist nodes that signed up as a follower, but do not send anything.
         // Strategy:
-        // 1. Get the IDs of all senders
+        // 1. Mark the followees among the senders
         // 2. Loop through the followees and identify those who are in the group of followees but did not submit a
         //    candidate transaction.
         // 3. Add those to a blacklist
 
-        Set<Integer> senderIds = candidates
-                .stream()
-                .map(candidate -> candidate.sender)
-                .collect(Collectors.toSet());
-        for (int i = 0; i < this.followees.length; i++) {
-            if (this.followees[i] && !senderIds.contains(i)) {
-                this.blacklist.add(i);
+        boolean[] sent = new boolean[this.followees.length];
+        int sender = -1;
+        for (int k = 0; k < count; k++) {
+            if (Candidate.sender(candidates[k]) == sender)
+                continue;
+            sender = Candidate.sender(candidates[k]);
+            int followee = Arrays.binarySearch(this.followees, sender);
+            if (followee >= 0)
+                sent[followee] = true;
+        }
+        for (int k = 0; k < this.followees.length; k++) {
+            if (!sent[k]) {
+                this.blacklisted[k] = true;
             }
         }
     }
@@ -0,0 +1,12 @@
+package com.jotterbach.trustconsensus;
+
+/** Adversary that proposes everything it has heard in even rounds and nothing in odd ones */
+public class FlipFlopNode extends RelayingNode {
+
+    public FlipFlopNode(double p_graph, double p_malicious, double p_txDistribution, int numRounds) {
+    }
+
+    protected int[] propose(int round) {
+        return round % 2 == 0 ? heard.toSortedArray() : new int[0];
+    }
+}
@@ -0,0 +1,63 @@
+package com.jotterbach.trustconsensus;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Random follow graph in compressed sparse row form: the nodes that node {@code i} follows are
+ * {@code followees[start[i]..start[i + 1])}, in ascending order. It takes O(nodes + edges) memory
+ * and is drawn in O(nodes + edges) time by skipping over the pairs without an edge, so sparse
+ * graphs of 100k nodes and more stay cheap.
+ */
+final class FollowGraph {
+
+    private final int[] start;
+    private final int[] followees;
+
+    /** Lets every node follow every other one with probability {@code p_graph} */
+    FollowGraph(int numNodes, double p_graph, Random random) {
+        start = new int[numNodes + 1];
+        int[] edges = new int[16];
+        int e = 0;
+        for (int i = 0; i < numNodes; i++) {
+            // the pairs (i, j), j != i, are numbered 0..numNodes - 2; k is the next one with an edge
+            for (long k = skip(p_graph, random); k < numNodes - 1; k += 1 + skip(p_graph, random)) {
+                if (e == edges.length)
+                    edges = Arrays.copyOf(edges, edges.length * 2);
+                edges[e++] = k < i ? (int) k : (int) k + 1;
+            }
+            start[i + 1] = e;
+        }
+        followees = Arrays.copyOf(edges, e);
+    }
+
+    /** @return the number of pairs to pass over before the next one with an edge */
+    private static long skip(double p, Random random) {
+        if (p >= 1)
+            return 0;
+        if (p <= 0)
+            return Long.MAX_VALUE / 2;
+        // geometric with success probability p
+        return (long) (Math.log(1 - random.nextDouble()) / Math.log(1 - p));
+    }
+
+    /** @return the number of nodes {@code i} follows */
+    int numFollowees(int i) {
+        return start[i + 1] - start[i];
+    }
+
+    /** @return the {@code k}-th node {@code i} follows, in ascending order */
+    int followee(int i, int k) {
+        return followees[start[i] + k];
+    }
+
+    /** @return a copy of the nodes {@code i} follows, in ascending order */
+    int[] followees(int i) {
+        return Arrays.copyOfRange(followees, start[i], start[i + 1]);
+    }
+
+    /** @return true if {@code i} follows {@code j} */
+    boolean follows(int i, int j) {
+        return Arrays.binarySearch(followees, start[i], start[i + 1], j) >= 0;
+    }
+}
@@ -0,0 +1,103 @@
+package com.jotterbach.trustconsensus;
+
+import java.util.Arrays;
+
+/**
+ * Set of {@code int}s in one open-addressing table with linear probing, for transaction ids
+ * without boxing them. The slot value 0 marks a free slot, so 0 itself is tracked on the side.
+ * The table doubles once it is half full and never shrinks; {@link #clear()} keeps it for reuse.
+ */
+final class IntSet {
+
+    private int[] keys;
+    private int mask;
+    private boolean hasZero;
+    private int size;
+
+    IntSet() {
+        this(16);
+    }
+
+    IntSet(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2)
+            capacity <<= 1;
+        keys = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /** @return true if {@code key} was not in the set yet */
+    boolean add(int key) {
+        if (key == 0) {
+            if (hasZero)
+                return false;
+            hasZero = true;
+            size++;
+            return true;
+        }
+        int i = slot(key);
+        while (keys[i] != 0) {
+            if (keys[i] == key)
+                return false;
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        if (++size * 2 > keys.length)
+            grow();
+        return true;
+    }
+
+    boolean contains(int key) {
+        if (key == 0)
+            return hasZero;
+        for (int i = slot(key); keys[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key)
+                return true;
+        }
+        return false;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        if (size > 0)
+            Arrays.fill(keys, 0);
+        hasZero = false;
+        size = 0;
+    }
+
+    /** @return the elements in ascending order */
+    int[] toSortedArray() {
+        int[] out = new int[size];
+        int n = 0;
+        if (hasZero)
+            out[n++] = 0;
+        for (int key : keys) {
+            if (key != 0)
+                out[n++] = key;
+        }
+        Arrays.sort(out);
+        return out;
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void grow() {
+        int[] old = keys;
+        keys = new int[old.length * 2];
+        mask = keys.length - 1;
+        for (int key : old) {
+            if (key == 0)
+                continue;
+            int i = slot(key);
+            while (keys[i] != 0)
+                i = (i + 1) & mask;
+            keys[i] = key;
+        }
+    }
+}
@@ -13,6 +13,10 @@ public class MaliciousNode implements Node {
         return;
     }
 
+    public void setFollowees(int[] followees, int numNodes) {
+        return;
+    }
+
     public void setPendingTransaction(Set<Transaction> pendingTransactions) {
         return;
     }
@@ -1,6 +1,8 @@
 package com.jotterbach.trustconsensus;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Set;
 
 public interface Node {
@@ -12,6 +14,18 @@ public interface Node {
     /** {@code followees[i]} is true if and only if this node follows node {@code i} */
     void setFollowees(boolean[] followees);
 
+    /**
+     * Same as {@link #setFollowees(boolean[])}, but names the followees: {@code followees} holds
+     * the indices of the nodes this node follows in ascending order, out of {@code numNodes}.
+     * Nodes that keep the compact form should override it; by default it is expanded.
+     */
+    default void setFollowees(int[] followees, int numNodes) {
+        boolean[] dense = new boolean[numNodes];
+        for (int j : followees)
+            dense[j] = true;
+        setFollowees(dense);
+    }
+
     /** initialize proposal list of transactions */
     void setPendingTransaction(Set<Transaction> pendingTransactions);
 
@@ -22,6 +36,33 @@ public interface Node {
      */
     Set<Transaction> sendToFollowers();
 
+    /**
+     * Same as {@link #sendToFollowers()}, as transaction ids in ascending order. Nodes that keep
+     * ids should override it; by default the set is converted.
+     */
+    default int[] sendIdsToFollowers() {
+        Set<Transaction> proposals = sendToFollowers();
+        int[] ids = new int[proposals.size()];
+        int n = 0;
+        for (Transaction tx : proposals)
+            ids[n++] = tx.id;
+        Arrays.sort(ids);
+        return ids;
+    }
+
     /** receive candidates from other nodes. */
     void receiveFromFollowees(Set<Candidate> candidates);
+
+    /**
+     * Same as {@link #receiveFromFollowees(Set)}, with the candidates packed by
+     * {@link Candidate#pack} into {@code candidates[0..count)}. The array belongs to the caller and
+     * is reused once this returns. Nodes that keep ids should override it; by default the
+     * candidates are unpacked.
+     */
+    default void receiveFromFollowees(long[] candidates, int count) {
+        Set<Candidate> unpacked = new HashSet<>(count * 2);
+        for (int k = 0; k < count; k++)
+            unpacked.add(new Candidate(new Transaction(Candidate.txId(candidates[k])), Candidate.sender(candidates[k])));
+        receiveFromFollowees(unpacked);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+package com.jotterbach.trustconsensus;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Base of the adversaries that, unlike {@link MaliciousNode}, take part in the traffic: it
+ * remembers every transaction it is given or sent, whoever the sender, and leaves it to the
+ * subclass what to propose in each round. It ignores its followees.
+ */
+abstract class RelayingNode implements Node {
+
+    /** every transaction heard so far; it is never cleared */
+    protected final IntSet heard = new IntSet();
+    /** the number of times proposals were asked for so far */
+    protected int round;
+
+    public void setFollowees(boolean[] followees) {
+        return;
+    }
+
+    public void setFollowees(int[] followees, int numNodes) {
+        return;
+    }
+
+    public void setPendingTransaction(Set<Transaction> pendingTransactions) {
+        for (Transaction tx : pendingTransactions)
+            heard.add(tx.id);
+    }
+
+    public Set<Transaction> sendToFollowers() {
+        int[] ids = sendIdsToFollowers();
+        Set<Transaction> proposals = new HashSet<>(ids.length * 2);
+        for (int id : ids)
+            proposals.add(new Transaction(id));
+        return proposals;
+    }
+
+    public int[] sendIdsToFollowers() {
+        return propose(round++);
+    }
+
+    /**
+     * @return the ids to propose in round {@code round}, counting from 0, in ascending order;
+     *         an id may appear more than once
+     */
+    protected abstract int[] propose(int round);
+
+    public void receiveFromFollowees(Set<Candidate> candidates) {
+        for (Candidate candidate : candidates)
+            heard.add(candidate.tx.id);
+    }
+
+    public void receiveFromFollowees(long[] candidates, int count) {
+        for (int k = 0; k < count; k++)
+            heard.add(Candidate.txId(candidates[k]));
+    }
+}
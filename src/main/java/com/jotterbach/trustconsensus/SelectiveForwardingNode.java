@@ -0,0 +1,28 @@
+package com.jotterbach.trustconsensus;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Adversary that stays active but only ever proposes a random half of what it has heard, drawn
+ * afresh every round from its own seeded generator.
+ */
+public class SelectiveForwardingNode extends RelayingNode {
+
+    private final Random random;
+
+    public SelectiveForwardingNode(double p_graph, double p_malicious, double p_txDistribution, int numRounds,
+                                   long seed) {
+        this.random = new Random(seed);
+    }
+
+    protected int[] propose(int round) {
+        int[] ids = heard.toSortedArray();
+        int n = 0;
+        for (int id : ids) {
+            if (random.nextBoolean())
+                ids[n++] = id;
+        }
+        return Arrays.copyOf(ids, n);
+    }
+}
@@ -6,125 +6,318 @@
 
 package com.jotterbach.trustconsensus;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+/**
+ * Runs the nodes of a random follow graph for a number of rounds. Each round has a send phase,
+ * in which every node hands over its proposals, and a receive phase, in which every node gets the
+ * candidates of the nodes it follows. Both phases are split across {@code numThreads} threads
+ * and the second only starts once the first is complete. With one thread they run on the caller's
+ * thread, without a pool.
+ *
+ * <p>
+ * Every node is only ever called by one thread at a time, and each recipient collects its own
+ * candidates in sender order, so nothing is shared between the threads of a phase. All random
+ * choices are drawn from one generator seeded with {@code seed}, which makes the outcome depend
+ * on the seed alone and not on the number of threads; adversaries that draw numbers of their own
+ * get generators seeded from it.
+ *
+ * <p>
+ * Malicious nodes are picked from a mix of {@link Adversary} kinds, each with a relative weight.
+ */
 public class Simulation {
 
-   public static void main(String[] args) {
+   public static final int DEFAULT_NUM_NODES = 100;
+   public static final int DEFAULT_NUM_TX = 500;
 
-      // There are four required command line arguments: p_graph (.1, .2, .3),
-      // p_malicious (.15, .30, .45), p_txDistribution (.01, .05, .10), 
-      // and numRounds (10, 20). You should try to test your CompliantNode
-      // code for all 3x3x3x2 = 54 combinations.
+   private final int numNodes;
+   private final int numRounds;
+   private final Node[] nodes;
+   private final boolean[] malicious;
+   private final FollowGraph followees;
+   private final IntSet validTxIds;
+   /** the candidates a thread is packing for its current recipient */
+   private final ThreadLocal<long[]> candidateBuffer = ThreadLocal.withInitial(() -> new long[1024]);
+   private final int numThreads;
+   /** the number of distinct transactions handed to at least one node at the start */
+   private int numDistributedTx;
+   /** per node, a hash of its last proposals and the round in which they last changed */
+   private final long[] proposalHash;
+   private final int[] lastChangedRound;
+   /** per node, the number of valid candidates it has sent to each of its followers so far */
+   private final long[] numProposed;
+   private int roundsRun;
+   private long elapsedNanos;
 
-      int numNodes = 100;
-      double p_graph = Double.parseDouble(args[0]); // parameter for random graph: prob. that an edge will exist
-      double p_malicious = Double.parseDouble(args[1]); // prob. that a node will be set to be malicious
-      double p_txDistribution = Double.parseDouble(args[2]); // probability of assigning an initial transaction to each node 
-      int numRounds = Integer.parseInt(args[3]); // number of simulation rounds your nodes will run for
+   /** Same as the full constructor, with silent malicious nodes only */
+   public Simulation(int numNodes, double p_graph, double p_malicious, double p_txDistribution,
+                     int numRounds, long seed, int numThreads) {
+      this(numNodes, p_graph, p_malicious, p_txDistribution, numRounds, seed, numThreads, Adversary.silent());
+   }
 
-      // pick which nodes are malicious and which are compliant
-      Node[] nodes = new Node[numNodes];
+   public Simulation(int numNodes, double p_graph, double p_malicious, double p_txDistribution,
+                     int numRounds, long seed, int numThreads, Map<Adversary, Double> adversaries) {
+      this.numNodes = numNodes;
+      this.numRounds = numRounds;
+      this.numThreads = numThreads;
+      Random random = new Random(seed);
+
+      // pick which nodes are malicious and which are compliant; an EnumMap fixes the order of the
+      // kinds for pick
+      Map<Adversary, Double> mix = new EnumMap<>(Adversary.class);
+      mix.putAll(adversaries);
+      nodes = new Node[numNodes];
+      malicious = new boolean[numNodes];
+      proposalHash = new long[numNodes];
+      lastChangedRound = new int[numNodes];
+      numProposed = new long[numNodes];
       for (int i = 0; i < numNodes; i++) {
-         if(Math.random() < p_malicious)
-            // When you are ready to try testing with malicious nodes, replace the
-            // instantiation below with an instantiation of a MaliciousNode
-            nodes[i] = new MaliciousNode(p_graph, p_malicious, p_txDistribution, numRounds);
+         malicious[i] = random.nextDouble() < p_malicious;
+         if (malicious[i])
+            nodes[i] = pick(mix, random).create(p_graph, p_malicious, p_txDistribution, numRounds, random);
          else
             nodes[i] = new CompliantNode(p_graph, p_malicious, p_txDistribution, numRounds);
       }
 
-
       // initialize random follow graph
-      boolean[][] followees = new boolean[numNodes][numNodes]; // followees[i][j] is true iff i follows j
-      for (int i = 0; i < numNodes; i++) {
-         for (int j = 0; j < numNodes; j++) {
-            if (i == j) continue;
-            if(Math.random() < p_graph) { // p_graph is .1, .2, or .3
-               followees[i][j] = true;
-            }
-         }
-      }
+      followees = new FollowGraph(numNodes, p_graph, random); // p_graph is .1, .2, or .3
 
       // notify all nodes of their followees
       for (int i = 0; i < numNodes; i++)
-         nodes[i].setFollowees(followees[i]);
+         nodes[i].setFollowees(followees.followees(i), numNodes);
 
-      // initialize a set of 500 valid Transactions with random ids
-      int numTx = 500;
-      HashSet<Integer> validTxIds = new HashSet<Integer>();
-      Random random = new Random();
-      for (int i = 0; i < numTx; i++) {
+      // initialize a set of 500 valid Transactions with random ids, also listed in the order
+      // drawn so that the distribution below draws the same numbers for the same seed
+      validTxIds = new IntSet(DEFAULT_NUM_TX);
+      int[] txIds = new int[DEFAULT_NUM_TX];
+      int numTx = 0;
+      for (int i = 0; i < DEFAULT_NUM_TX; i++) {
          int r = random.nextInt();
-         validTxIds.add(r);
+         if (validTxIds.add(r))
+            txIds[numTx++] = r;
       }
 
-
       // distribute the 500 Transactions throughout the nodes, to initialize
       // the starting state of Transactions each node has heard. The distribution
       // is random with probability p_txDistribution for each Transaction-Node pair.
+      boolean[] distributed = new boolean[numTx];
       for (int i = 0; i < numNodes; i++) {
          HashSet<Transaction> pendingTransactions = new HashSet<Transaction>();
-         for(Integer txID : validTxIds) {
-            if (Math.random() < p_txDistribution) // p_txDistribution is .01, .05, or .10.
-               pendingTransactions.add(new Transaction(txID));
+         for (int t = 0; t < numTx; t++) {
+            if (random.nextDouble() < p_txDistribution) { // p_txDistribution is .01, .05, or .10.
+               pendingTransactions.add(new Transaction(txIds[t]));
+               distributed[t] = true;
+            }
          }
          nodes[i].setPendingTransaction(pendingTransactions);
       }
+      for (boolean d : distributed)
+         if (d)
+            numDistributedTx++;
+   }
 
+   /** @return a kind drawn from {@code mix} by weight; a mix of one kind draws nothing */
+   private static Adversary pick(Map<Adversary, Double> mix, Random random) {
+      if (mix.size() == 1)
+         return mix.keySet().iterator().next();
+      double total = 0;
+      for (double weight : mix.values())
+         total += weight;
+      double r = random.nextDouble() * total;
+      Adversary last = null;
+      for (Map.Entry<Adversary, Double> e : mix.entrySet()) {
+         last = e.getKey();
+         r -= e.getValue();
+         if (r < 0)
+            break;
+      }
+      return last;
+   }
 
-      // Simulate for numRounds times
-      for (int round = 0; round < numRounds; round++) { // numRounds is either 10 or 20
-
-         // gather all the proposals into a map. The key is the index of the node receiving
-         // proposals. The value is an ArrayList containing 1x2 Integer arrays. The first
-         // element of each array is the id of the transaction being proposed and the second
-         // element is the index # of the node proposing the transaction.
-         HashMap<Integer, Set<Candidate>> allProposals = new HashMap<>();
-
-         for (int i = 0; i < numNodes; i++) {
-            Set<Transaction> proposals = nodes[i].sendToFollowers();
-            for (Transaction tx : proposals) {
-               if (!validTxIds.contains(tx.id))
-                  continue; // ensure that each tx is actually valid
-
-               for (int j = 0; j < numNodes; j++) {
-                  if(!followees[j][i]) continue; // tx only matters if j follows i
+   /** Simulates all rounds */
+   public void run() throws InterruptedException {
+      ExecutorService executor = numThreads == 1 ? null : Executors.newFixedThreadPool(numThreads);
+      try {
+         long start = System.nanoTime();
+         for (int round = 0; round < numRounds; round++) { // numRounds is either 10 or 20
+            runRound(executor, round);
+            roundsRun++;
+         }
+         elapsedNanos += System.nanoTime() - start;
+      } finally {
+         if (executor != null)
+            executor.shutdown();
+      }
+   }
 
-                  if (!allProposals.containsKey(j)) {
-                	  Set<Candidate> candidates = new HashSet<>();
-                	  allProposals.put(j, candidates);
-                  }
-                  
-                  Candidate candidate = new Candidate(tx, i);
-                  allProposals.get(j).add(candidate);
-               }
+   private void runRound(ExecutorService executor, int round) throws InterruptedException {
+      // the valid proposals of every node as ascending ids; node i only writes proposals[i]
+      int[][] proposals = new int[numNodes][];
+      inParallel(executor, i -> {
+         int[] ids = nodes[i].sendIdsToFollowers();
+         int n = 0;
+         for (int id : ids) {
+            if (validTxIds.contains(id)) // ensure that each tx is actually valid
+               ids[n++] = id;
+         }
+         proposals[i] = n == ids.length ? ids : Arrays.copyOf(ids, n);
+         numProposed[i] += n;
+         long hash = 31L * Arrays.hashCode(proposals[i]) + n;
+         if (round == 0 || hash != proposalHash[i]) {
+            proposalHash[i] = hash;
+            lastChangedRound[i] = round;
+         }
+      });
 
+      // every node collects the candidates of the nodes it follows, packed into the buffer of
+      // its thread, walking only the edges of the graph
+      inParallel(executor, j -> {
+         long[] candidates = candidateBuffer.get();
+         int count = 0;
+         for (int k = 0; k < followees.numFollowees(j); k++) { // tx only matters if j follows i
+            int i = followees.followee(j, k);
+            if (count + proposals[i].length > candidates.length) {
+               candidates = Arrays.copyOf(candidates, Math.max(2 * candidates.length, count + proposals[i].length));
+               candidateBuffer.set(candidates);
             }
+            for (int id : proposals[i])
+               candidates[count++] = Candidate.pack(i, id);
          }
+         if (count > 0)
+            nodes[j].receiveFromFollowees(candidates, count);
+      });
+   }
 
-         // Distribute the Proposals to their intended recipients as Candidates
-         for (int i = 0; i < numNodes; i++) {
-            if (allProposals.containsKey(i))
-               nodes[i].receiveFromFollowees(allProposals.get(i));
+   private interface NodeTask {
+      void run(int node);
+   }
+
+   /**
+    * Runs {@code task} for every node on {@code numThreads} threads and waits for all of them, or
+    * on this thread if there is no {@code executor}
+    */
+   private void inParallel(ExecutorService executor, NodeTask task) throws InterruptedException {
+      if (executor == null) {
+         for (int i = 0; i < numNodes; i++)
+            task.run(i);
+         return;
+      }
+      List<Callable<Void>> slices = new ArrayList<>(numThreads);
+      for (int t = 0; t < numThreads; t++) {
+         int from = (int) ((long) numNodes * t / numThreads);
+         int to = (int) ((long) numNodes * (t + 1) / numThreads);
+         slices.add(() -> {
+            for (int i = from; i < to; i++)
+               task.run(i);
+            return null;
+         });
+      }
+      for (Future<Void> slice : executor.invokeAll(slices)) {
+         try {
+            slice.get();
+         } catch (ExecutionException e) {
+            throw new IllegalStateException("node failed", e.getCause());
          }
       }
+   }
+
+   /**
+    * @return the transactions node {@code i} believes consensus has been reached upon; like
+    *         {@link Node#sendToFollowers()} this may only be asked once per node
+    */
+   public Set<Transaction> getConsensus(int i) {
+      return nodes[i].sendToFollowers();
+   }
+
+   /** Same as {@link #getConsensus(int)}, as ascending transaction ids */
+   public int[] getConsensusIds(int i) {
+      return nodes[i].sendIdsToFollowers();
+   }
+
+   public int getNumNodes() {
+      return numNodes;
+   }
+
+   public boolean isMalicious(int i) {
+      return malicious[i];
+   }
+
+   /**
+    * @return the number of valid candidates, repeats included, that node {@code i} has sent to
+    *         each of the nodes following it over all rounds run
+    */
+   public long getNumProposed(int i) {
+      return numProposed[i];
+   }
+
+   /** @return the number of distinct transactions at least one node started out with */
+   public int getNumDistributedTx() {
+      return numDistributedTx;
+   }
+
+   /**
+    * @return the number of rounds after which the proposals of compliant nodes stopped changing,
+    *         or 0 if there are none
+    */
+   public int getRoundsToConvergence() {
+      int rounds = 0;
+      for (int i = 0; i < numNodes; i++)
+         if (!malicious[i])
+            rounds = Math.max(rounds, lastChangedRound[i] + 1);
+      return rounds;
+   }
+
+   /** @return the simulated rounds per second of wall clock time */
+   public double getRoundsPerSecond() {
+      return roundsRun / (elapsedNanos / 1e9);
+   }
+
+   public static void main(String[] args) throws InterruptedException {
+
+      // There are four required command line arguments: p_graph (.1, .2, .3),
+      // p_malicious (.15, .30, .45), p_txDistribution (.01, .05, .10),
+      // and numRounds (10, 20). You should try to test your CompliantNode
+      // code for all 3x3x3x2 = 54 combinations; SimulationSweep runs them all.
+      // Optionally follow the number of nodes (100), the random seed (random),
+      // the number of threads (one per core) and the mix of malicious nodes
+      // (SILENT=1, see Adversary.parseMix).
+
+      double p_graph = Double.parseDouble(args[0]); // parameter for random graph: prob. that an edge will exist
+      double p_malicious = Double.parseDouble(args[1]); // prob. that a node will be set to be malicious
+      double p_txDistribution = Double.parseDouble(args[2]); // probability of assigning an initial transaction to each node
+      int numRounds = Integer.parseInt(args[3]); // number of simulation rounds your nodes will run for
+      int numNodes = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_NUM_NODES;
+      long seed = args.length > 5 ? Long.parseLong(args[5]) : new Random().nextLong();
+      int numThreads = args.length > 6 ? Integer.parseInt(args[6]) : Runtime.getRuntime().availableProcessors();
+      Map<Adversary, Double> adversaries = args.length > 7 ? Adversary.parseMix(args[7]) : Adversary.silent();
+
+      Simulation simulation = new Simulation(numNodes, p_graph, p_malicious, p_txDistribution,
+            numRounds, seed, numThreads, adversaries);
+      simulation.run();
 
       // print results
       for (int i = 0; i < numNodes; i++) {
-         Set<Transaction> transactions = nodes[i].sendToFollowers();
+         Set<Transaction> transactions = simulation.getConsensus(i);
          System.out.println("Transaction ids that Node " + i + " believes consensus on:");
          for (Transaction tx : transactions)
             System.out.println(tx.id);
          System.out.println();
          System.out.println();
       }
-
+      System.out.printf("seed %d, %d threads: %.1f rounds/s%n", seed, numThreads, simulation.getRoundsPerSecond());
    }
 
 
 }
-
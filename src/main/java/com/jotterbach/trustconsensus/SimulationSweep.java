@@ -0,0 +1,136 @@
+package com.jotterbach.trustconsensus;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs {@link Simulation} for all 3x3x3x2 = 54 combinations of p_graph, p_malicious,
+ * p_txDistribution and numRounds, each with seeds {@code 0..numSeeds - 1}, on a pool of workers.
+ * Every simulation runs on a single thread of the pool, or on the caller's thread if there is
+ * only one worker. Instead of printing the consensus of
+ * every node, it writes one CSV line per simulation with these metrics:
+ * <ul>
+ * <li>{@code agreement}: the share of compliant nodes whose consensus is the most common one</li>
+ * <li>{@code coverage}: the mean share of the transactions handed out at the start that a
+ * compliant node ends up with</li>
+ * <li>{@code roundsToConvergence}: see {@link Simulation#getRoundsToConvergence()}</li>
+ * </ul>
+ * Lines come in a fixed order, so apart from the timings the file only depends on the arguments.
+ */
+public class SimulationSweep {
+
+    public static final double[] P_GRAPH = {.1, .2, .3};
+    public static final double[] P_MALICIOUS = {.15, .30, .45};
+    public static final double[] P_TX_DISTRIBUTION = {.01, .05, .10};
+    public static final int[] NUM_ROUNDS = {10, 20};
+
+    static final String HEADER = "p_graph,p_malicious,p_txDistribution,numRounds,seed,"
+            + "compliant,agreement,coverage,roundsToConvergence,millis";
+
+    /**
+     * Arguments, all optional: the number of seeds per configuration (5), the output file
+     * (sweep.csv), the number of nodes ({@link Simulation#DEFAULT_NUM_NODES}) and the number of
+     * workers (one per core).
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int numSeeds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        Path output = Paths.get(args.length > 1 ? args[1] : "sweep.csv");
+        int numNodes = args.length > 2 ? Integer.parseInt(args[2]) : Simulation.DEFAULT_NUM_NODES;
+        int numWorkers = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        long start = System.nanoTime();
+        List<String> lines = sweep(numNodes, numSeeds, numWorkers);
+        try (BufferedWriter out = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            out.write(HEADER);
+            out.newLine();
+            for (String line : lines) {
+                out.write(line);
+                out.newLine();
+            }
+        }
+        System.out.printf("%d simulations of %d nodes in %.1f s, written to %s%n", lines.size(), numNodes,
+                (System.nanoTime() - start) / 1e9, output);
+    }
+
+    /** @return the CSV lines, without header, for every configuration and seed */
+    static List<String> sweep(int numNodes, int numSeeds, int numWorkers) throws InterruptedException {
+        List<Callable<String>> runs = new ArrayList<>();
+        for (double p_graph : P_GRAPH)
+            for (double p_malicious : P_MALICIOUS)
+                for (double p_txDistribution : P_TX_DISTRIBUTION)
+                    for (int numRounds : NUM_ROUNDS)
+                        for (int seed = 0; seed < numSeeds; seed++) {
+                            long s = seed;
+                            runs.add(() -> run(numNodes, p_graph, p_malicious, p_txDistribution, numRounds, s));
+                        }
+        List<String> lines = new ArrayList<>(runs.size());
+        if (numWorkers == 1) {
+            for (Callable<String> run : runs) {
+                try {
+                    lines.add(run.call());
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IllegalStateException("simulation failed", e);
+                }
+            }
+            return lines;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(numWorkers);
+        try {
+            for (Future<String> run : executor.invokeAll(runs)) {
+                try {
+                    lines.add(run.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("simulation failed", e.getCause());
+                }
+            }
+            return lines;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** @return the CSV line of one simulation */
+    static String run(int numNodes, double p_graph, double p_malicious, double p_txDistribution,
+                      int numRounds, long seed) throws InterruptedException {
+        long start = System.nanoTime();
+        Simulation simulation = new Simulation(numNodes, p_graph, p_malicious, p_txDistribution,
+                numRounds, seed, 1);
+        simulation.run();
+
+        // IntBuffer compares by content, so equal consensus sets fall together
+        Map<IntBuffer, Integer> consensusCounts = new HashMap<>();
+        int compliant = 0, mostCommon = 0;
+        double coverage = 0;
+        for (int i = 0; i < numNodes; i++) {
+            if (simulation.isMalicious(i))
+                continue;
+            int[] consensus = simulation.getConsensusIds(i);
+            compliant++;
+            mostCommon = Math.max(mostCommon, consensusCounts.merge(IntBuffer.wrap(consensus), 1, Integer::sum));
+            if (simulation.getNumDistributedTx() > 0)
+                coverage += (double) consensus.length / simulation.getNumDistributedTx();
+        }
+        double agreement = compliant == 0 ? 0 : (double) mostCommon / compliant;
+        coverage = compliant == 0 ? 0 : coverage / compliant;
+        return String.format(Locale.ROOT, "%.2f,%.2f,%.2f,%d,%d,%d,%.4f,%.4f,%d,%d", p_graph, p_malicious,
+                p_txDistribution, numRounds, seed, compliant, agreement, coverage,
+                simulation.getRoundsToConvergence(), (System.nanoTime() - start) / 1_000_000);
+    }
+}
@@ -0,0 +1,32 @@
+package com.jotterbach.trustconsensus;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Adversary that relays everything it has heard and floods its followers with
+ * {@link #FLOOD_SIZE} more copies of those ids every round, drawn from its own seeded generator.
+ * Made-up ids would never get past the validity check of {@link Simulation}, replayed valid ones
+ * do, so its proposals repeat ids.
+ */
+public class SybilNode extends RelayingNode {
+
+    public static final int FLOOD_SIZE = 5 * Simulation.DEFAULT_NUM_TX;
+
+    private final Random random;
+
+    public SybilNode(double p_graph, double p_malicious, double p_txDistribution, int numRounds, long seed) {
+        this.random = new Random(seed);
+    }
+
+    protected int[] propose(int round) {
+        int[] ids = heard.toSortedArray();
+        if (ids.length == 0)
+            return ids;
+        int[] proposals = Arrays.copyOf(ids, ids.length + FLOOD_SIZE);
+        for (int k = ids.length; k < proposals.length; k++)
+            proposals[k] = ids[random.nextInt(ids.length)];
+        Arrays.sort(proposals);
+        return proposals;
+    }
+}
@@ -0,0 +1,134 @@
+package com.jotterbach.blockchain;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BlockStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private KeyPair miner;
+    private KeyPair alice;
+
+    @Before
+    public void setupKeys() throws NoSuchAlgorithmException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(1024);
+        miner = keyGen.generateKeyPair();
+        alice = keyGen.generateKeyPair();
+    }
+
+    /** Builds a chain of {@code n} blocks on top of {@code genesis}, each spending the previous coinbase */
+    private List<Block> buildChain(Block genesis, int n) throws GeneralSecurityException {
+        List<Block> blocks = new ArrayList<>();
+        Block prev = genesis;
+        for (int i = 0; i < n; i++) {
+            Transaction tx = new Transaction();
+            tx.addInput(prev.getCoinbase().getHash(), 0);
+            tx.addOutput(10, alice.getPublic());
+            tx.addOutput(15, miner.getPublic());
+            Signature signature = Signature.getInstance("SHA256withRSA");
+            signature.initSign(miner.getPrivate());
+            signature.update(tx.getRawDataToSign(0));
+            tx.addSignature(signature.sign(), 0);
+            tx.finalize();
+
+            Block block = new Block(prev.getHash(), miner.getPublic());
+            block.addTransaction(tx);
+            block.finalize();
+            blocks.add(block);
+            prev = block;
+        }
+        return blocks;
+    }
+
+    private static void assertSameBlock(Block expected, Block actual) {
+        Assert.assertNotNull(actual);
+        Assert.assertArrayEquals(expected.getHash(), actual.getHash());
+        Assert.assertArrayEquals(expected.getPrevBlockHash(), actual.getPrevBlockHash());
+        Assert.assertArrayEquals(expected.getCoinbase().getHash(), actual.getCoinbase().getHash());
+        Assert.assertEquals(expected.getTransactions(), actual.getTransactions());
+        for (int i = 0; i < expected.getTransactions().size(); i++)
+            Assert.assertArrayEquals(expected.getTransaction(i).getHash(), actual.getTransaction(i).getHash());
+    }
+
+    @Test
+    public void testBlocksSurviveReopenAcrossSegments() throws Exception {
+        Block genesis = new Block(null, miner.getPublic());
+        genesis.finalize();
+        List<Block> blocks = buildChain(genesis, 20);
+        Path dir = folder.getRoot().toPath();
+
+        // small segments so that the blocks spread over several files
+        try (BlockStore store = new BlockStore(dir, 4096)) {
+            for (int i = 0; i < blocks.size(); i++)
+                store.put(blocks.get(i), i + 2);
+            Assert.assertEquals(blocks.size(), store.size());
+            assertSameBlock(blocks.get(7), store.get(blocks.get(7).getHash()));
+        }
+        Assert.assertTrue(dir.toFile().list().length > 1);
+
+        try (BlockStore store = new BlockStore(dir, 4096)) {
+            Assert.assertEquals(blocks.size(), store.size());
+            for (int i = 0; i < blocks.size(); i++) {
+                assertSameBlock(blocks.get(i), store.get(blocks.get(i).getHash()));
+                Assert.assertEquals(i + 2, store.getHeight(blocks.get(i).getHash()));
+            }
+            Assert.assertNull(store.get(genesis.getHash()));
+        }
+    }
+
+    @Test
+    public void testHalfWrittenRecordIsDropped() throws Exception {
+        Block genesis = new Block(null, miner.getPublic());
+        genesis.finalize();
+        List<Block> blocks = buildChain(genesis, 3);
+        Path dir = folder.getRoot().toPath();
+
+        try (BlockStore store = new BlockStore(dir)) {
+            store.put(blocks.get(0), 2);
+            store.put(blocks.get(1), 3);
+        }
+        Path segment = dir.resolve("blocks-00000.dat");
+        Files.write(segment, ByteBuffer.allocate(6).putInt(1000).array(), StandardOpenOption.APPEND);
+
+        try (BlockStore store = new BlockStore(dir)) {
+            Assert.assertEquals(2, store.size());
+            store.put(blocks.get(2), 4);
+            assertSameBlock(blocks.get(1), store.get(blocks.get(1).getHash()));
+            assertSameBlock(blocks.get(2), store.get(blocks.get(2).getHash()));
+        }
+    }
+
+    @Test
+    public void testBlockChainPagesPrunedBlocksBackIn() throws GeneralSecurityException, IOException {
+        Block genesis = new Block(null, miner.getPublic());
+        genesis.finalize();
+        List<Block> blocks = buildChain(genesis, 3 * BlockChain.CUT_OFF_AGE);
+
+        try (BlockStore store = new BlockStore(folder.getRoot().toPath())) {
+            BlockChain blockChain = new BlockChain(genesis, store);
+            for (Block block : blocks)
+                Assert.assertTrue(blockChain.addBlock(block));
+
+            Assert.assertTrue(blockChain.getNumBlocks() < blocks.size());
+            Assert.assertTrue(store.contains(genesis.getHash()));
+            assertSameBlock(genesis, blockChain.getBlock(genesis.getHash()));
+            assertSameBlock(blocks.get(0), blockChain.getBlock(blocks.get(0).getHash()));
+            assertSameBlock(blocks.get(blocks.size() - 1), blockChain.getBlock(blocks.get(blocks.size() - 1).getHash()));
+        }
+    }
+}
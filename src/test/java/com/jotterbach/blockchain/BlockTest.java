@@ -0,0 +1,169 @@
+package com.jotterbach.blockchain;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlockTest {
+
+    private KeyPair miner;
+
+    @Before
+    public void setupKeys() throws NoSuchAlgorithmException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(1024);
+        miner = keyGen.generateKeyPair();
+    }
+
+    private Transaction tx(int i) {
+        Transaction tx = new Transaction();
+        tx.addInput(new byte[]{(byte) i, (byte) (i >> 8)}, i);
+        tx.addOutput(i, miner.getPublic());
+        tx.finalize();
+        return tx;
+    }
+
+    @Test
+    public void testHashCoversHeaderOnly() throws NoSuchAlgorithmException {
+        Block block = new Block(new byte[32], miner.getPublic());
+        for (int i = 0; i < 5; i++)
+            block.addTransaction(tx(i));
+        block.finalize();
+
+        byte[] header = block.getHeader();
+        Assert.assertEquals(64, header.length);
+        Assert.assertArrayEquals(block.getMerkleRoot(), Arrays.copyOfRange(header, 32, 64));
+        Assert.assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(header), block.getHash());
+    }
+
+    @Test
+    public void testRootIsExtendedIncrementally() {
+        Block incremental = new Block(null, miner.getPublic());
+        Block atOnce = new Block(null, miner.getPublic());
+        Assert.assertArrayEquals(new byte[32], incremental.getMerkleRoot());
+        byte[] previous = incremental.getMerkleRoot();
+        for (int i = 0; i < 37; i++) {
+            Transaction tx = tx(i);
+            incremental.addTransaction(tx);
+            atOnce.addTransaction(tx);
+            byte[] root = incremental.getMerkleRoot();
+            Assert.assertFalse(Arrays.equals(previous, root));
+            previous = root;
+        }
+        Assert.assertArrayEquals(atOnce.getMerkleRoot(), incremental.getMerkleRoot());
+
+        // the order of the transactions is committed to as well
+        Block swapped = new Block(null, miner.getPublic());
+        swapped.addTransaction(tx(1));
+        swapped.addTransaction(tx(0));
+        Block ordered = new Block(null, miner.getPublic());
+        ordered.addTransaction(tx(0));
+        ordered.addTransaction(tx(1));
+        Assert.assertFalse(Arrays.equals(ordered.getMerkleRoot(), swapped.getMerkleRoot()));
+    }
+
+    @Test
+    public void testRootCommitsToContentNotClaimedHashes() {
+        Block block = new Block(null, miner.getPublic());
+        block.addTransaction(tx(0));
+        block.addTransaction(tx(1));
+        byte[] root = block.getMerkleRoot();
+
+        // edits to the returned list do not reach the block
+        block.getTransactions().set(0, tx(2));
+        block.getTransactions().clear();
+        Assert.assertEquals(2, block.getTransactions().size());
+        Assert.assertArrayEquals(root, block.getMerkleRoot());
+
+        // a transaction claiming the hash of another is committed to by its content
+        Transaction impostor = tx(5);
+        impostor.setHash(tx(1).getHash());
+        Block forged = new Block(null, miner.getPublic());
+        forged.addTransaction(tx(0));
+        forged.addTransaction(impostor);
+        Assert.assertFalse(Arrays.equals(root, forged.getMerkleRoot()));
+    }
+
+    @Test
+    public void testEveryTransactionHasAValidProof() {
+        for (int n = 1; n <= 40; n++) {
+            Block block = new Block(null, miner.getPublic());
+            for (int i = 0; i < n; i++)
+                block.addTransaction(tx(i));
+            byte[] root = block.getMerkleRoot();
+            for (int i = 0; i < n; i++) {
+                MerkleProof proof = block.getMerkleProof(block.getTransaction(i).getHash());
+                Assert.assertEquals(i, proof.getIndex());
+                Assert.assertTrue(proof.size() <= 32 - Integer.numberOfLeadingZeros(n));
+                Assert.assertTrue(proof.verify(root));
+                Assert.assertTrue(block.verifyMerkleProof(proof));
+            }
+        }
+    }
+
+    @Test
+    public void testForgedProofsAreRejected() {
+        Block block = new Block(null, miner.getPublic());
+        for (int i = 0; i < 11; i++)
+            block.addTransaction(tx(i));
+        Assert.assertNull(block.getMerkleProof(tx(99).getHash()));
+
+        MerkleProof proof = block.getMerkleProof(block.getTransaction(6).getHash());
+        byte[][] path = proof.getPath();
+        Assert.assertTrue(block.verifyMerkleProof(new MerkleProof(proof.getTxHash(), 6, 11, path)));
+        Assert.assertFalse(block.verifyMerkleProof(new MerkleProof(tx(99).getHash(), 6, 11, path)));
+        Assert.assertFalse(block.verifyMerkleProof(new MerkleProof(proof.getTxHash(), 7, 11, path)));
+        Assert.assertFalse(block.verifyMerkleProof(new MerkleProof(proof.getTxHash(), 6, 7, path)));
+        Assert.assertFalse(block.verifyMerkleProof(new MerkleProof(proof.getTxHash(), 6, 11, new byte[0][])));
+
+        // an interior node passed off as a transaction of a tree with fewer leaves
+        byte[][] leaves = new byte[4][];
+        for (int i = 0; i < 4; i++)
+            leaves[i] = Block.leaf(block.getTransaction(i));
+        byte[] interior = Merkle.node(leaves[0], leaves[1]);
+        Block four = new Block(null, miner.getPublic());
+        for (int i = 0; i < 4; i++)
+            four.addTransaction(block.getTransaction(i));
+        Assert.assertFalse(four.verifyMerkleProof(
+                new MerkleProof(interior, 0, 2, new byte[][]{Merkle.node(leaves[2], leaves[3])})));
+
+        // the same transaction in another block
+        Block other = new Block(null, miner.getPublic());
+        other.addTransaction(block.getTransaction(6));
+        Assert.assertFalse(other.verifyMerkleProof(proof));
+    }
+
+    @Test
+    public void testBlockChainProvesInclusionInAcceptedBlocks() throws Exception {
+        Block genesis = new Block(null, miner.getPublic());
+        genesis.finalize();
+        BlockChain blockChain = new BlockChain(genesis);
+
+        Transaction spend = new Transaction();
+        spend.addInput(genesis.getCoinbase().getHash(), 0);
+        spend.addOutput(25, miner.getPublic());
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(miner.getPrivate());
+        signature.update(spend.getRawDataToSign(0));
+        spend.addSignature(signature.sign(), 0);
+        spend.finalize();
+        Block block = new Block(genesis.getHash(), miner.getPublic());
+        block.addTransaction(spend);
+        block.finalize();
+        Assert.assertTrue(blockChain.addBlock(block));
+
+        MerkleProof proof = blockChain.getMerkleProof(block.getHash(), spend.getHash());
+        Assert.assertNotNull(proof);
+        Assert.assertTrue(blockChain.verifyMerkleProof(block.getHash(), proof));
+        Assert.assertFalse(blockChain.verifyMerkleProof(genesis.getHash(), proof));
+        Assert.assertNull(blockChain.getMerkleProof(genesis.getHash(), spend.getHash()));
+        Assert.assertNull(blockChain.getMerkleProof(new byte[32], spend.getHash()));
+    }
+}
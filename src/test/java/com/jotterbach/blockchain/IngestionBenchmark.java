@@ -0,0 +1,46 @@
+package com.jotterbach.blockchain;
+
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+
+/**
+ * Appends coinbase-only blocks to a {@link BlockChain} (100k by default, or the number given as
+ * first argument) and prints, for every batch, the cost per block, the blocks still held by the
+ * chain, the blocks it archived and the heap in use. All of these should stay flat as the chain
+ * grows. Run with {@code main}.
+ */
+public class IngestionBenchmark {
+
+    private static final int BATCH = 10_000;
+
+    public static void main(String[] args) throws NoSuchAlgorithmException {
+        int blocks = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int batch = Math.max(BATCH, blocks / 20);
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(1024);
+        PublicKey address = keyGen.generateKeyPair().getPublic();
+
+        Block genesis = new Block(null, address);
+        genesis.finalize();
+        int[] archived = new int[1];
+        BlockChain chain = new BlockChain(genesis, (block, height) -> archived[0]++);
+        Runtime rt = Runtime.getRuntime();
+
+        long start = System.nanoTime();
+        for (int i = 1; i <= blocks; i++) {
+            Block block = new Block(chain.getMaxHeightBlock().getHash(), address);
+            block.finalize();
+            if (!chain.addBlock(block))
+                throw new IllegalStateException("block " + i + " rejected");
+            if (i % batch == 0) {
+                long elapsed = System.nanoTime() - start;
+                System.gc();
+                System.out.printf("blocks %8d-%8d: %.2f us/block, %d in memory, %d archived, heap used %d KB%n",
+                        i - batch + 1, i, elapsed / 1e3 / batch, chain.getNumBlocks(), archived[0],
+                        (rt.totalMemory() - rt.freeMemory()) >> 10);
+                start = System.nanoTime();
+            }
+        }
+    }
+}
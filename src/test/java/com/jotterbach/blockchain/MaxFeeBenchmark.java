@@ -0,0 +1,100 @@
+package com.jotterbach.blockchain;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Compares the fees captured and the latency of {@link TxHandler} with {@link MaxFeeTxHandler}
+ * at several time budgets. The batch double spends heavily: each transaction spends one to three
+ * outputs of a cluster of {@code CLUSTER} outputs and pays a random fee, and some have a child in
+ * the batch. Signatures are cached after the warm-up, so the latency is that of the selection.
+ * Run with {@code main}.
+ */
+public class MaxFeeBenchmark {
+
+    private static final int CLUSTERS = 100;
+    private static final int CLUSTER = 6;
+    private static final int TXS_PER_CLUSTER = 8;
+    private static final int ROUNDS = 20;
+
+    private final Random random = new Random(42);
+    private KeyPair owner;
+
+    public static void main(String[] args) throws GeneralSecurityException {
+        new MaxFeeBenchmark().run();
+    }
+
+    private void run() throws GeneralSecurityException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(1024);
+        owner = keyGen.generateKeyPair();
+
+        Transaction root = new Transaction();
+        root.addInput(new byte[32], 0);
+        for (int i = 0; i < CLUSTERS * CLUSTER; i++)
+            root.addOutput(100, owner.getPublic());
+        root.finalize();
+        UTXOPool utxoPool = new UTXOPool();
+        for (int i = 0; i < root.numOutputs(); i++)
+            utxoPool.addUTXO(new UTXO(root.getHash(), i), root.getOutput(i));
+
+        List<Transaction> batch = new ArrayList<>();
+        for (int c = 0; c < CLUSTERS; c++) {
+            for (int t = 0; t < TXS_PER_CLUSTER; t++) {
+                int inputs = 1 + random.nextInt(3);
+                Transaction tx = new Transaction();
+                for (int k = 0; k < inputs; k++)
+                    tx.addInput(root.getHash(), c * CLUSTER + (t + k * 2) % CLUSTER);
+                tx.addOutput(inputs * 100 - 1 - random.nextInt(30), owner.getPublic());
+                batch.add(sign(tx));
+                if (random.nextInt(4) == 0) {
+                    Transaction child = new Transaction();
+                    child.addInput(tx.getHash(), 0);
+                    child.addOutput(tx.getOutput(0).value - random.nextInt(30), owner.getPublic());
+                    batch.add(sign(child));
+                }
+            }
+        }
+        Transaction[] txs = batch.toArray(new Transaction[0]);
+        System.out.printf("%d transactions over %d outputs%n", txs.length, root.numOutputs());
+
+        measure("TxHandler", txs, utxoPool, possible -> new TxHandler(utxoPool).handleTxs(possible));
+        for (long budget : new long[]{0, 5, 20, 100}) {
+            measure("MaxFeeTxHandler " + budget + " ms", txs, utxoPool,
+                    possible -> new MaxFeeTxHandler(utxoPool, budget, TimeUnit.MILLISECONDS).handleTxs(possible));
+        }
+    }
+
+    private void measure(String name, Transaction[] txs, UTXOPool utxoPool,
+                         Function<Transaction[], Transaction[]> handler) {
+        for (int round = 0; round < ROUNDS; round++)
+            handler.apply(txs);
+        long best = Long.MAX_VALUE;
+        Transaction[] accepted = null;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            accepted = handler.apply(txs);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-22s %4d accepted, fees %8.0f, %6.1f ms%n", name, accepted.length,
+                MaxFeeTxHandler.totalFee(accepted, utxoPool), best / 1e6);
+    }
+
+    private Transaction sign(Transaction tx) throws GeneralSecurityException {
+        for (int i = 0; i < tx.numInputs(); i++) {
+            Signature signature = Signature.getInstance("SHA256withRSA");
+            signature.initSign(owner.getPrivate());
+            signature.update(tx.getRawDataToSign(i));
+            tx.addSignature(signature.sign(), i);
+        }
+        tx.finalize();
+        return tx;
+    }
+}
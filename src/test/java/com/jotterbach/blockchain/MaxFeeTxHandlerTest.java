@@ -0,0 +1,101 @@
+package com.jotterbach.blockchain;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MaxFeeTxHandlerTest {
+
+    private KeyPair owner;
+    private Transaction root;
+    private UTXOPool utxoPool;
+
+    @Before
+    public void setupKeys() throws NoSuchAlgorithmException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(1024);
+        owner = keyGen.generateKeyPair();
+        root = new Transaction();
+        root.addInput(new byte[]{1}, 0);
+        for (int i = 0; i < 8; i++)
+            root.addOutput(100, owner.getPublic());
+        root.finalize();
+        utxoPool = new UTXOPool();
+        for (int i = 0; i < root.numOutputs(); i++)
+            utxoPool.addUTXO(new UTXO(root.getHash(), i), root.getOutput(i));
+    }
+
+    private Transaction spend(double value, Transaction prev, int... indices) throws GeneralSecurityException {
+        Transaction tx = new Transaction();
+        for (int index : indices)
+            tx.addInput(prev.getHash(), index);
+        tx.addOutput(value, owner.getPublic());
+        for (int i = 0; i < indices.length; i++) {
+            Signature signature = Signature.getInstance("SHA256withRSA");
+            signature.initSign(owner.getPrivate());
+            signature.update(tx.getRawDataToSign(i));
+            tx.addSignature(signature.sign(), i);
+        }
+        tx.finalize();
+        return tx;
+    }
+
+    @Test
+    public void testSearchBeatsFirstClaimant() throws GeneralSecurityException {
+        Transaction both = spend(190, root, 0, 1);
+        Transaction first = spend(94, root, 0);
+        Transaction second = spend(94, root, 1);
+        Transaction[] batch = {both, first, second};
+
+        Transaction[] greedy = new MaxFeeTxHandler(utxoPool, 0, TimeUnit.MILLISECONDS).handleTxs(batch);
+        Assert.assertArrayEquals(new Transaction[]{both}, greedy);
+        Assert.assertArrayEquals(greedy, new TxHandler(utxoPool).handleTxs(batch));
+
+        MaxFeeTxHandler handler = new MaxFeeTxHandler(utxoPool);
+        Transaction[] best = handler.handleTxs(batch);
+        Assert.assertArrayEquals(new Transaction[]{first, second}, best);
+        Assert.assertEquals(12, MaxFeeTxHandler.totalFee(best, utxoPool), 0);
+        Assert.assertFalse(handler.getUTXOPool().contains(root.getHash(), 0));
+        Assert.assertTrue(handler.getUTXOPool().contains(first.getHash(), 0));
+    }
+
+    @Test
+    public void testSelectionIsValidAndPaysAtLeastAsMuch() throws GeneralSecurityException {
+        Random random = new Random(7);
+        for (int round = 0; round < 5; round++) {
+            List<Transaction> batch = new ArrayList<>();
+            for (int t = 0; t < 12; t++) {
+                int a = random.nextInt(8);
+                int b = random.nextInt(8);
+                Transaction tx = a == b ? spend(100 - random.nextInt(20), root, a)
+                        : spend(200 - random.nextInt(40), root, a, b);
+                batch.add(tx);
+                if (random.nextBoolean())
+                    batch.add(spend(tx.getOutput(0).value - random.nextInt(20), tx, 0));
+            }
+            Transaction[] txs = batch.toArray(new Transaction[0]);
+            Transaction[] baseline = new TxHandler(utxoPool).handleTxs(txs);
+            Transaction[] best = new MaxFeeTxHandler(utxoPool, 1, TimeUnit.SECONDS).handleTxs(txs);
+
+            // every selected transaction was accepted when applied in the returned order
+            Assert.assertArrayEquals(best, new TxHandler(utxoPool).handleTxs(best));
+            Set<Transaction> selected = new HashSet<>(Arrays.asList(best));
+            Assert.assertEquals(best.length, selected.size());
+            Assert.assertTrue(MaxFeeTxHandler.totalFee(best, utxoPool)
+                    >= MaxFeeTxHandler.totalFee(baseline, utxoPool));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.jotterbach.blockchain;
+
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.Random;
+
+/**
+ * Measures Merkle proofs on a block of 10k transactions (or the number given as first argument):
+ * the one-off cost of building the tree, then the throughput of generating a proof for a random
+ * transaction and of verifying it against the block's root. Run with {@code main}.
+ */
+public class MerkleProofBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int PROOFS = 200_000;
+
+    public static void main(String[] args) throws NoSuchAlgorithmException {
+        int numTxs = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(1024);
+        PublicKey address = keyGen.generateKeyPair().getPublic();
+        Random random = new Random(42);
+
+        Block block = new Block(new byte[32], address);
+        byte[][] txHashes = new byte[numTxs][];
+        for (int i = 0; i < numTxs; i++) {
+            byte[] prevTxHash = new byte[32];
+            random.nextBytes(prevTxHash);
+            Transaction tx = new Transaction();
+            tx.addInput(prevTxHash, 0);
+            tx.addOutput(1, address);
+            tx.finalize();
+            block.addTransaction(tx);
+            txHashes[i] = tx.getHash();
+        }
+        byte[] root = block.getMerkleRoot();
+
+        long start = System.nanoTime();
+        MerkleProof first = block.getMerkleProof(txHashes[0]);
+        System.out.printf("%d transactions: tree built in %.1f ms, proofs of %d hashes%n",
+                numTxs, (System.nanoTime() - start) / 1e6, first.size());
+
+        for (int round = 0; round < ROUNDS; round++) {
+            MerkleProof[] proofs = new MerkleProof[PROOFS];
+            start = System.nanoTime();
+            for (int i = 0; i < PROOFS; i++)
+                proofs[i] = block.getMerkleProof(txHashes[random.nextInt(numTxs)]);
+            long generateNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (MerkleProof proof : proofs) {
+                if (!proof.verify(root))
+                    throw new IllegalStateException("proof rejected");
+            }
+            long verifyNanos = System.nanoTime() - start;
+            System.out.printf("round %d: %,.0f proofs/s generated, %,.0f proofs/s verified%n", round,
+                    PROOFS / (generateNanos / 1e9), PROOFS / (verifyNanos / 1e9));
+        }
+    }
+}
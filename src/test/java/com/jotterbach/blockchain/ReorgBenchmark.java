@@ -0,0 +1,119 @@
+package com.jotterbach.blockchain;
+
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures switching the UTXO set between two competing branches of {@code DEPTH} blocks on top of
+ * a UTXO set with a million entries, by rolling one branch back and replaying the other through
+ * their {@link BlockUndo} records. Signatures are not involved; run with {@code main}.
+ */
+public class ReorgBenchmark {
+
+    private static final int UTXOS = 1_000_000;
+    private static final int DEPTH = 10;
+    private static final int TXS_PER_BLOCK = 200;
+    private static final int ITERATIONS = 50;
+
+    private final Random random = new Random(42);
+    private final PublicKey address;
+    private final List<UTXO> funded = new ArrayList<>();
+
+    private ReorgBenchmark() throws NoSuchAlgorithmException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(1024);
+        address = keyGen.generateKeyPair().getPublic();
+    }
+
+    public static void main(String[] args) throws NoSuchAlgorithmException {
+        new ReorgBenchmark().run();
+    }
+
+    private void run() {
+        UTXOPool state = new UTXOPool();
+        for (int t = 0; t < UTXOS / 1000; t++) {
+            Transaction tx = new Transaction();
+            for (int i = 0; i < 1000; i++)
+                tx.addOutput(1, address);
+            tx.setHash(randomHash());
+            for (int i = 0; i < 1000; i++) {
+                UTXO utxo = new UTXO(tx.getHash(), i);
+                state.addUTXO(utxo, tx.getOutput(i));
+                funded.add(utxo);
+            }
+        }
+        System.out.println("UTXO set size: " + state.size());
+
+        List<BlockUndo> branchA = buildBranch(state);
+        rollback(branchA, state);
+        List<BlockUndo> branchB = buildBranch(state);
+
+        for (int i = 0; i < ITERATIONS; i++)
+            reorg(branchB, branchA, state);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            reorg(branchA, branchB, state);
+            reorg(branchB, branchA, state);
+        }
+        double micros = (System.nanoTime() - start) / 1e3 / (2 * ITERATIONS);
+
+        Runtime rt = Runtime.getRuntime();
+        System.gc();
+        System.out.printf("%d-block reorg: %.1f us (%d UTXO changes), heap used %d MB%n",
+                DEPTH, micros, changes(branchA) + changes(branchB),
+                (rt.totalMemory() - rt.freeMemory()) >> 20);
+    }
+
+    /** Builds {@code DEPTH} blocks on top of {@code state}, leaving {@code state} at the last one */
+    private List<BlockUndo> buildBranch(UTXOPool state) {
+        List<BlockUndo> undos = new ArrayList<>();
+        byte[] prevHash = randomHash();
+        for (int d = 0; d < DEPTH; d++) {
+            Block block = new Block(prevHash, address);
+            for (int t = 0; t < TXS_PER_BLOCK; t++) {
+                Transaction tx = new Transaction();
+                for (int i = 0; i < 2; i++) {
+                    UTXO utxo = funded.get(random.nextInt(funded.size()));
+                    if (state.contains(utxo))
+                        tx.addInput(utxo.getTxHash(), utxo.getIndex());
+                }
+                tx.addOutput(1, address);
+                tx.addOutput(1, address);
+                tx.setHash(randomHash());
+                block.addTransaction(tx);
+            }
+            block.finalize();
+            prevHash = block.getHash();
+            BlockUndo undo = BlockUndo.of(block, state);
+            undo.apply(state);
+            undos.add(undo);
+        }
+        return undos;
+    }
+
+    private static void reorg(List<BlockUndo> from, List<BlockUndo> to, UTXOPool state) {
+        rollback(from, state);
+        for (BlockUndo undo : to)
+            undo.apply(state);
+    }
+
+    private static void rollback(List<BlockUndo> branch, UTXOPool state) {
+        for (int i = branch.size() - 1; i >= 0; i--)
+            branch.get(i).rollback(state);
+    }
+
+    private static int changes(List<BlockUndo> branch) {
+        return branch.stream().mapToInt(BlockUndo::size).sum();
+    }
+
+    private byte[] randomHash() {
+        byte[] hash = new byte[32];
+        random.nextBytes(hash);
+        return hash;
+    }
+}
@@ -0,0 +1,116 @@
+package com.jotterbach.blockchain;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the cold start of a node that rebuilds its state by adding every block from genesis with
+ * one that restores the snapshot written {@code REPLAY} blocks before the tip and only adds the
+ * blocks after it. Signature results are not cached across the two runs. Run with {@code main}.
+ */
+public class StartupBenchmark {
+
+    private static final int BLOCKS = 1000;
+    private static final int TXS_PER_BLOCK = 5;
+    private static final int REPLAY = 50;
+    private static final int WALLETS = 10;
+
+    private final Random random = new Random(42);
+    private final List<KeyPair> wallets = new ArrayList<>();
+    private final Map<PublicKey, PrivateKey> privateKeys = new HashMap<>();
+
+    public static void main(String[] args) throws GeneralSecurityException, IOException {
+        new StartupBenchmark().run();
+    }
+
+    private void run() throws GeneralSecurityException, IOException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(1024);
+        for (int i = 0; i < WALLETS; i++) {
+            KeyPair pair = keyGen.generateKeyPair();
+            wallets.add(pair);
+            privateKeys.put(pair.getPublic(), pair.getPrivate());
+        }
+
+        Path snapshot = Files.createTempFile("chain", ".snapshot");
+        Block genesis = new Block(null, wallet().getPublic());
+        genesis.finalize();
+        BlockChain chain = new BlockChain(genesis);
+        List<Block> blocks = new ArrayList<>();
+        for (int i = 0; i < BLOCKS; i++) {
+            if (i == BLOCKS - REPLAY)
+                chain.writeSnapshot(snapshot);
+            Block block = nextBlock(chain);
+            if (!chain.addBlock(block))
+                throw new IllegalStateException("block " + i + " rejected");
+            blocks.add(block);
+        }
+        System.out.printf("chain of %d blocks, %d UTXOs, snapshot of %d KB%n", BLOCKS,
+                chain.getMaxHeightUTXOPool().size(), Files.size(snapshot) >> 10);
+
+        SignatureVerifier.sharedCache().clear();
+        long start = System.nanoTime();
+        BlockChain fromGenesis = new BlockChain(genesis);
+        for (Block block : blocks)
+            fromGenesis.addBlock(block);
+        long genesisNanos = System.nanoTime() - start;
+
+        SignatureVerifier.sharedCache().clear();
+        start = System.nanoTime();
+        BlockChain fromSnapshot = BlockChain.fromSnapshot(snapshot, null);
+        long loadNanos = System.nanoTime() - start;
+        for (Block block : blocks.subList(BLOCKS - REPLAY, BLOCKS))
+            fromSnapshot.addBlock(block);
+        long snapshotNanos = System.nanoTime() - start;
+
+        for (BlockChain restored : Arrays.asList(fromGenesis, fromSnapshot)) {
+            if (!Arrays.equals(chain.getMaxHeightBlock().getHash(), restored.getMaxHeightBlock().getHash())
+                    || chain.getMaxHeightUTXOPool().size() != restored.getMaxHeightUTXOPool().size())
+                throw new IllegalStateException("restored chain differs");
+        }
+        System.out.printf("replay from genesis: %d ms%n", genesisNanos / 1_000_000);
+        System.out.printf("snapshot + %d blocks: %d ms (%d ms loading the snapshot)%n", REPLAY,
+                snapshotNanos / 1_000_000, loadNanos / 1_000_000);
+        Files.delete(snapshot);
+    }
+
+    /** Builds a block on the tip of {@code chain} spending random outputs of its UTXO set */
+    private Block nextBlock(BlockChain chain) throws GeneralSecurityException {
+        UTXOPool utxoPool = chain.getMaxHeightUTXOPool();
+        List<UTXO> utxos = utxoPool.getAllUTXO();
+        Block block = new Block(chain.getMaxHeightBlock().getHash(), wallet().getPublic());
+        for (int t = 0; t < TXS_PER_BLOCK && !utxos.isEmpty(); t++) {
+            UTXO utxo = utxos.remove(random.nextInt(utxos.size()));
+            Transaction.Output spent = utxoPool.getTxOutput(utxo);
+            Transaction tx = new Transaction();
+            tx.addInput(utxo.getTxHash(), utxo.getIndex());
+            tx.addOutput(spent.value / 2, wallet().getPublic());
+            tx.addOutput(spent.value / 2, wallet().getPublic());
+            Signature signature = Signature.getInstance("SHA256withRSA");
+            signature.initSign(privateKeys.get(spent.address));
+            signature.update(tx.getRawDataToSign(0));
+            tx.addSignature(signature.sign(), 0);
+            tx.finalize();
+            block.addTransaction(tx);
+        }
+        block.finalize();
+        return block;
+    }
+
+    private KeyPair wallet() {
+        return wallets.get(random.nextInt(WALLETS));
+    }
+}
@@ -0,0 +1,155 @@
+package com.jotterbach.blockchain;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TransactionPoolTest {
+
+    private KeyPair owner;
+    private UTXOPool utxoPool;
+
+    @Before
+    public void setupKeys() throws NoSuchAlgorithmException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(1024);
+        owner = keyGen.generateKeyPair();
+        utxoPool = new UTXOPool();
+    }
+
+    /** Spends a fresh UTXO worth 100 and pays {@code fee} */
+    private Transaction tx(int i, double fee) {
+        Transaction funding = new Transaction();
+        funding.addInput(new byte[]{(byte) i, (byte) (i >> 8)}, 0);
+        funding.addOutput(100, owner.getPublic());
+        funding.finalize();
+        utxoPool.addUTXO(new UTXO(funding.getHash(), 0), funding.getOutput(0));
+        Transaction tx = new Transaction();
+        tx.addInput(funding.getHash(), 0);
+        tx.addOutput(100 - fee, owner.getPublic());
+        tx.finalize();
+        return tx;
+    }
+
+    @Test
+    public void testTransactionsComeBestFirst() {
+        TransactionPool pool = new TransactionPool();
+        double[] fees = {3, 0, 7, 1, 5};
+        List<Transaction> txs = new ArrayList<>();
+        for (int i = 0; i < fees.length; i++) {
+            txs.add(tx(i, fees[i]));
+            Assert.assertTrue(pool.addTransaction(txs.get(i), utxoPool));
+            Assert.assertEquals(fees[i], pool.getFee(txs.get(i).getHash()), 0);
+        }
+
+        List<Transaction> best = pool.getTransactions();
+        Assert.assertEquals(5, best.size());
+        Assert.assertSame(txs.get(2), best.get(0));
+        Assert.assertSame(txs.get(4), best.get(1));
+        Assert.assertSame(txs.get(0), best.get(2));
+        Assert.assertSame(txs.get(3), best.get(3));
+        Assert.assertSame(txs.get(1), best.get(4));
+        Assert.assertEquals(best.subList(0, 2), pool.getBestTransactions(2));
+
+        pool.removeTransaction(txs.get(2).getHash());
+        Assert.assertNull(pool.getTransaction(txs.get(2).getHash()));
+        Assert.assertTrue(Double.isNaN(pool.getFee(txs.get(2).getHash())));
+        Assert.assertSame(txs.get(4), pool.getBestTransactions(1).get(0));
+        Assert.assertEquals(4, pool.size());
+    }
+
+    @Test
+    public void testInputsResolveAgainstPooledParents() {
+        TransactionPool pool = new TransactionPool();
+        Transaction parent = tx(0, 10);
+        pool.addTransaction(parent, utxoPool);
+
+        Transaction child = new Transaction();
+        child.addInput(parent.getHash(), 0);
+        child.addOutput(60, owner.getPublic());
+        child.finalize();
+        pool.addTransaction(child, utxoPool);
+        Assert.assertEquals(30, pool.getFee(child.getHash()), 0);
+
+        // an input resolving to nothing is worth nothing
+        Transaction orphan = new Transaction();
+        orphan.addInput(new byte[]{42}, 0);
+        orphan.addOutput(5, owner.getPublic());
+        orphan.finalize();
+        pool.addTransaction(orphan);
+        Assert.assertEquals(-5, pool.getFee(orphan.getHash()), 0);
+        Assert.assertSame(orphan, pool.getTransactions().get(2));
+    }
+
+    @Test
+    public void testFullPoolEvictsLowestFeeRate() {
+        TransactionPool pool = new TransactionPool(3, Long.MAX_VALUE);
+        Transaction low = tx(0, 1);
+        Transaction mid = tx(1, 2);
+        Transaction high = tx(2, 3);
+        pool.addTransaction(mid, utxoPool);
+        pool.addTransaction(low, utxoPool);
+        pool.addTransaction(high, utxoPool);
+
+        Assert.assertFalse(pool.addTransaction(tx(3, 0.5), utxoPool));
+        Assert.assertEquals(3, pool.size());
+
+        Transaction best = tx(4, 4);
+        Assert.assertTrue(pool.addTransaction(best, utxoPool));
+        Assert.assertEquals(3, pool.size());
+        Assert.assertNull(pool.getTransaction(low.getHash()));
+        Assert.assertSame(best, pool.getTransactions().get(0));
+
+        // byte limit of two transactions of equal size
+        int size = low.getRawTxSize();
+        TransactionPool small = new TransactionPool(Integer.MAX_VALUE, 2L * size);
+        small.addTransaction(low, utxoPool);
+        small.addTransaction(high, utxoPool);
+        Assert.assertTrue(small.addTransaction(mid, utxoPool));
+        Assert.assertEquals(2L * size, small.getBytes());
+        Assert.assertNull(small.getTransaction(low.getHash()));
+
+        TransactionPool copy = new TransactionPool(small);
+        copy.removeTransaction(high.getHash());
+        Assert.assertEquals(2, small.size());
+        Assert.assertEquals(size, copy.getBytes());
+    }
+
+    @Test
+    public void testConcurrentInsertsAndBatchRemoval() throws InterruptedException {
+        TransactionPool pool = new TransactionPool(150, Long.MAX_VALUE);
+        List<Transaction> txs = new ArrayList<>();
+        for (int i = 0; i < 200; i++)
+            txs.add(tx(i, i % 50));
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int offset = t;
+            threads[t] = new Thread(() -> {
+                for (int i = offset; i < txs.size(); i += threads.length)
+                    pool.addTransaction(txs.get(i), utxoPool);
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        List<Transaction> pooled = pool.getTransactions();
+        Assert.assertEquals(150, pool.size());
+        Assert.assertEquals(150, pooled.size());
+        Assert.assertEquals(150, new HashSet<>(pooled).size());
+        Assert.assertEquals(150L * txs.get(0).getRawTxSize(), pool.getBytes());
+        for (int i = 1; i < pooled.size(); i++)
+            Assert.assertTrue(pool.getFee(pooled.get(i - 1).getHash()) >= pool.getFee(pooled.get(i).getHash()));
+
+        pool.removeTransactions(pooled.subList(0, 100));
+        Assert.assertEquals(50, pool.size());
+        Assert.assertEquals(pooled.subList(100, 150), pool.getTransactions());
+    }
+}
@@ -0,0 +1,127 @@
+package com.jotterbach.blockchain;
+
+import java.lang.ref.WeakReference;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TransactionTest {
+
+    private KeyPair alice;
+    private KeyPair bob;
+
+    @Before
+    public void setupKeys() throws NoSuchAlgorithmException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(1024);
+        alice = keyGen.generateKeyPair();
+        bob = keyGen.generateKeyPair();
+    }
+
+    /** @return a transaction with the same inputs and outputs as {@code tx}, built from scratch */
+    private Transaction rebuild(Transaction tx) {
+        Transaction copy = new Transaction();
+        for (Transaction.Input in : tx.getInputs()) {
+            copy.addInput(in.prevTxHash, in.outputIndex);
+            copy.addSignature(in.getSignature(), copy.numInputs() - 1);
+        }
+        for (Transaction.Output op : tx.getOutputs())
+            copy.addOutput(op.value, op.address);
+        copy.finalize();
+        return copy;
+    }
+
+    @Test
+    public void testMutationsInvalidateCachedEncodings() throws Exception {
+        Transaction tx = new Transaction();
+        tx.addInput(new byte[32], 0);
+        tx.addOutput(5, alice.getPublic());
+        byte[] sigData = tx.getRawDataToSign(0);
+        tx.finalize();
+        byte[] hash = tx.getHash();
+
+        tx.addOutput(3, bob.getPublic());
+        Assert.assertFalse(Arrays.equals(sigData, tx.getRawDataToSign(0)));
+        tx.finalize();
+        Assert.assertFalse(Arrays.equals(hash, tx.getHash()));
+        hash = tx.getHash();
+
+        tx.addInput(new byte[32], 1);
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        for (int i = 0; i < tx.numInputs(); i++) {
+            signature.initSign(alice.getPrivate());
+            signature.update(tx.getRawDataToSign(i));
+            tx.addSignature(signature.sign(), i);
+        }
+        tx.finalize();
+        Assert.assertFalse(Arrays.equals(hash, tx.getHash()));
+        Assert.assertArrayEquals(rebuild(tx).getHash(), tx.getHash());
+        Assert.assertArrayEquals(rebuild(tx).getRawTx(), tx.getRawTx());
+
+        tx.removeInput(1);
+        tx.finalize();
+        Assert.assertArrayEquals(rebuild(tx).getHash(), tx.getHash());
+    }
+
+    @Test
+    public void testInputsCannotChangeBehindTheCaches() {
+        Transaction tx = new Transaction();
+        tx.addInput(new byte[32], 0);
+        tx.addOutput(5, alice.getPublic());
+        tx.addSignature(new byte[]{1}, 0);
+        tx.finalize();
+        byte[] hash = tx.getHash();
+
+        Transaction copy = new Transaction(tx);
+        copy.getInput(0).addSignature(new byte[]{2});
+        copy.finalize();
+        Assert.assertFalse(Arrays.equals(hash, copy.getHash()));
+        Assert.assertArrayEquals(rebuild(copy).getHash(), copy.getHash());
+        tx.finalize();
+        Assert.assertArrayEquals(hash, tx.getHash());
+
+        try {
+            tx.getInputs().remove(0);
+            Assert.fail("inputs are read-only");
+        } catch (UnsupportedOperationException e) {
+            Assert.assertEquals(1, tx.numInputs());
+        }
+    }
+
+    @Test
+    public void testAddressesAreSharedUntilReleased() throws Exception {
+        PublicKey same = KeyFactory.getInstance("RSA")
+                .generatePublic(new X509EncodedKeySpec(bob.getPublic().getEncoded()));
+        Assert.assertSame(Address.of(bob.getPublic()), Address.of(same));
+
+        WeakReference<Address> released = new WeakReference<>(Address.of(
+                KeyPairGenerator.getInstance("RSA").generateKeyPair().getPublic()));
+        for (int i = 0; i < 50 && released.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(released.get());
+    }
+
+    @Test
+    public void testAllDataToSignMatchesSingleInputs() {
+        Transaction tx = new Transaction();
+        for (int i = 0; i < 4; i++)
+            tx.addInput(new byte[]{(byte) i}, i);
+        tx.addOutput(1, alice.getPublic());
+        tx.addOutput(2, bob.getPublic());
+        byte[][] all = tx.getRawDataToSign();
+        Assert.assertEquals(4, all.length);
+        for (int i = 0; i < all.length; i++)
+            Assert.assertArrayEquals(tx.getRawDataToSign(i), all[i]);
+    }
+}
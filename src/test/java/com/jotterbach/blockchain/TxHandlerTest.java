@@ -0,0 +1,131 @@
+package com.jotterbach.blockchain;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TxHandlerTest {
+
+    private KeyPair owner;
+    private Transaction root;
+    private UTXOPool utxoPool;
+
+    @Before
+    public void setupKeys() throws NoSuchAlgorithmException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(1024);
+        owner = keyGen.generateKeyPair();
+        root = new Transaction(100, owner.getPublic());
+        utxoPool = new UTXOPool();
+        utxoPool.addUTXO(new UTXO(root.getHash(), 0), root.getOutput(0));
+    }
+
+    private Transaction spend(Transaction prev, double... values) throws GeneralSecurityException {
+        Transaction tx = new Transaction();
+        tx.addInput(prev.getHash(), 0);
+        for (double value : values)
+            tx.addOutput(value, owner.getPublic());
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(owner.getPrivate());
+        signature.update(tx.getRawDataToSign(0));
+        tx.addSignature(signature.sign(), 0);
+        tx.finalize();
+        return tx;
+    }
+
+    @Test
+    public void testChainIsAcceptedInAnyOrder() throws GeneralSecurityException {
+        Transaction a = spend(root, 90);
+        Transaction b = spend(a, 80);
+        Transaction c = spend(b, 70);
+        Transaction d = spend(c, 60);
+
+        Transaction[] accepted = new TxHandler(utxoPool).handleTxs(new Transaction[]{d, b, c, a});
+        Assert.assertArrayEquals(new Transaction[]{a, b, c, d}, accepted);
+
+        // a batch already in dependency order is kept as is
+        accepted = new TxHandler(utxoPool).handleTxs(new Transaction[]{a, b, c, d});
+        Assert.assertArrayEquals(new Transaction[]{a, b, c, d}, accepted);
+    }
+
+    @Test
+    public void testBestPackageWinsConflicts() throws GeneralSecurityException {
+        Transaction rich = spend(root, 95);
+        Transaction cheap = spend(root, 99);
+        Transaction child = spend(cheap, 9);
+
+        // on its own, the first claimant wins
+        Assert.assertArrayEquals(new Transaction[]{rich},
+                new TxHandler(utxoPool).handleTxs(new Transaction[]{rich, cheap}));
+        // but the child makes the cheap parent's package worth more
+        TxGraph graph = new TxGraph(new Transaction[]{rich, cheap, child}, utxoPool);
+        Assert.assertEquals(1, graph.fee(1), 0);
+        Assert.assertEquals(90, graph.fee(2), 0);
+        Assert.assertTrue(graph.packageFeeRate(1) > graph.packageFeeRate(0));
+        Assert.assertArrayEquals(new Transaction[]{cheap, child},
+                new TxHandler(utxoPool).handleTxs(new Transaction[]{child, rich, cheap}));
+    }
+
+    @Test
+    public void testBlockMustListParentsFirst() throws GeneralSecurityException {
+        Block genesis = new Block(null, owner.getPublic());
+        genesis.finalize();
+        BlockChain blockChain = new BlockChain(genesis);
+        Transaction parent = spend(genesis.getCoinbase(), 20);
+        Transaction child = spend(parent, 10);
+
+        Block reversed = new Block(genesis.getHash(), owner.getPublic());
+        reversed.addTransaction(child);
+        reversed.addTransaction(parent);
+        reversed.finalize();
+        Assert.assertFalse(blockChain.addBlock(reversed));
+
+        // the handler sorts the pool, so a mined block comes out in order
+        blockChain.addTransaction(child);
+        blockChain.addTransaction(parent);
+        Block mined = new BlockHandler(blockChain).createBlock(owner.getPublic());
+        Assert.assertNotNull(mined);
+        Assert.assertEquals(2, mined.getTransactions().size());
+        Assert.assertSame(parent, mined.getTransaction(0));
+        Assert.assertSame(child, mined.getTransaction(1));
+    }
+
+    @Test
+    public void testBlockIsBuiltFromTheBestCandidatesOnly() throws GeneralSecurityException {
+        Block genesis = new Block(null, owner.getPublic());
+        genesis.finalize();
+        BlockChain blockChain = new BlockChain(genesis);
+        Transaction parent = spend(genesis.getCoinbase(), 15);
+        Transaction child = spend(parent, 14);
+        blockChain.addTransaction(parent);
+        blockChain.addTransaction(child);
+
+        Block mined = new BlockHandler(blockChain, 1).createBlock(owner.getPublic());
+        Assert.assertNotNull(mined);
+        Assert.assertEquals(1, mined.getTransactions().size());
+        Assert.assertSame(parent, mined.getTransaction(0));
+    }
+
+    @Test
+    public void testForgedTransactionCannotReuseAVerifiedHash() throws GeneralSecurityException {
+        Transaction honest = spend(root, 90);
+        Assert.assertTrue(new TxHandler(utxoPool).isValidTx(honest));
+
+        // pays someone else, carries the honest signature and claims the honest id
+        KeyPair thief = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        Transaction forged = new Transaction();
+        forged.addInput(root.getHash(), 0);
+        forged.addOutput(90, thief.getPublic());
+        forged.addSignature(honest.getInput(0).getSignature(), 0);
+        forged.setHash(honest.getHash());
+
+        Assert.assertFalse(new TxHandler(utxoPool).isValidTx(forged));
+        Assert.assertArrayEquals(new Transaction[0], new TxHandler(utxoPool).handleTxs(new Transaction[]{forged}));
+    }
+}
@@ -0,0 +1,76 @@
+package com.jotterbach.blockchain;
+
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the insert throughput of {@link TransactionPool} with 1 to 32 threads. Each thread adds
+ * its share of {@code TXS} distinct transactions, priced against a UTXO pool that funds all of
+ * them, to a pool large enough to hold every one; the best of {@code ROUNDS} runs is reported.
+ * Run with {@code main}.
+ */
+public class TxPoolConcurrencyBenchmark {
+
+    private static final int TXS = 200_000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws NoSuchAlgorithmException, InterruptedException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(1024);
+        PublicKey address = keyGen.generateKeyPair().getPublic();
+
+        Transaction funding = new Transaction();
+        funding.addInput(new byte[32], 0);
+        for (int i = 0; i < TXS; i++)
+            funding.addOutput(100, address);
+        funding.finalize();
+        UTXOPool utxoPool = new UTXOPool();
+        Transaction[] txs = new Transaction[TXS];
+        for (int i = 0; i < TXS; i++) {
+            utxoPool.addUTXO(new UTXO(funding.getHash(), i), funding.getOutput(i));
+            Transaction tx = new Transaction();
+            tx.addInput(funding.getHash(), i);
+            tx.addOutput(100 - i % 97, address);
+            tx.finalize();
+            txs[i] = tx;
+        }
+
+        for (int threads = 1; threads <= 32; threads *= 2) {
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++)
+                best = Math.min(best, insertAll(txs, utxoPool, threads));
+            System.out.printf("%2d threads: %8.0f inserts/ms%n", threads, TXS / (best / 1e6));
+        }
+    }
+
+    /** @return the nanoseconds {@code threads} threads take to add {@code txs} to a new pool */
+    private static long insertAll(Transaction[] txs, UTXOPool utxoPool, int threads) throws InterruptedException {
+        TransactionPool pool = new TransactionPool(TXS, Long.MAX_VALUE);
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int from = (int) ((long) TXS * t / threads);
+            int to = (int) ((long) TXS * (t + 1) / threads);
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = from; i < to; i++)
+                    pool.addTransaction(txs[i], utxoPool);
+            });
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers)
+            worker.join();
+        long elapsed = System.nanoTime() - begin;
+        if (pool.size() != TXS)
+            throw new IllegalStateException(pool.size() + " of " + TXS + " transactions pooled");
+        return elapsed;
+    }
+}
@@ -0,0 +1,87 @@
+package com.jotterbach.blockchain;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+
+/**
+ * Compares the garbage collection cost of the default {@link UTXOPool}, a
+ * {@link UTXOPool#compact()} one and a {@link UTXOPool#mapped} one. Each pool is filled with the
+ * same UTXOs (2M by default, or the number given as first argument) and then churned: every step
+ * spends the oldest UTXO and adds a new one, as validating blocks does. The benchmark prints the
+ * collections and total pause time during the churn and the pause of a full collection with the
+ * pool live. Run with {@code main}.
+ */
+public class UTXOGcBenchmark {
+
+    private static final int CHURN = 2_000_000;
+
+    public static void main(String[] args) throws IOException, NoSuchAlgorithmException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(1024);
+        PublicKey address = keyGen.generateKeyPair().getPublic();
+
+        run("UTXOPool", new UTXOPool(), n, address);
+        run("UTXOPool.compact", UTXOPool.compact(), n, address);
+        Path dir = Files.createTempDirectory("utxos");
+        run("UTXOPool.mapped", UTXOPool.mapped(dir), n, address);
+        for (String name : new String[]{"utxos.idx", "keys.dat"})
+            Files.delete(dir.resolve(name));
+        Files.delete(dir);
+    }
+
+    private static void run(String name, UTXOPool pool, int n, PublicKey address) {
+        Transaction owner = new Transaction();
+        for (int i = 0; i < n; i++)
+            pool.addUTXO(new UTXO(hash(i), 0), owner.new Output(i, address));
+        System.gc();
+
+        long[] before = gcStats();
+        long start = System.nanoTime();
+        for (int i = 0; i < CHURN; i++) {
+            byte[] spent = hash(i);
+            if (pool.getTxOutput(spent, 0) == null)
+                throw new IllegalStateException("missing UTXO " + i);
+            pool.removeUTXO(spent, 0);
+            pool.addUTXO(new UTXO(hash(n + i), 0), owner.new Output(n + i, address));
+        }
+        long churnNanos = System.nanoTime() - start;
+        long[] after = gcStats();
+
+        start = System.nanoTime();
+        System.gc();
+        long fullGcNanos = System.nanoTime() - start;
+        System.out.printf("%-16s churn %5d ms: %4d collections, %5d ms paused; full collection %4d ms%n",
+                name, churnNanos / 1_000_000, after[0] - before[0], after[1] - before[1], fullGcNanos / 1_000_000);
+    }
+
+    /** @return the number of collections and the milliseconds spent in them so far */
+    private static long[] gcStats() {
+        long[] stats = new long[2];
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            stats[0] += Math.max(0, gc.getCollectionCount());
+            stats[1] += Math.max(0, gc.getCollectionTime());
+        }
+        return stats;
+    }
+
+    /** @return a distinct pseudo-random 32-byte transaction hash for every {@code i} */
+    private static byte[] hash(long i) {
+        byte[] hash = new byte[32];
+        for (int w = 0; w < 4; w++) {
+            long z = (i * 4 + w) * 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            z ^= z >>> 31;
+            for (int b = 0; b < 8; b++)
+                hash[w * 8 + b] = (byte) (z >>> (56 - 8 * b));
+        }
+        return hash;
+    }
+}
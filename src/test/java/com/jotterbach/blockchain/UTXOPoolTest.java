@@ -0,0 +1,152 @@
+package com.jotterbach.blockchain;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class UTXOPoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Random random = new Random(7);
+    private final Transaction owner = new Transaction();
+    private PublicKey[] addresses;
+
+    @Before
+    public void setupKeys() throws NoSuchAlgorithmException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(1024);
+        addresses = new PublicKey[3];
+        for (int i = 0; i < addresses.length; i++)
+            addresses[i] = keyGen.generateKeyPair().getPublic();
+    }
+
+    private UTXO randomUtxo() {
+        // a few short hashes as well, which the compact pools keep aside
+        byte[] hash = new byte[random.nextInt(10) == 0 ? 4 : 32];
+        random.nextBytes(hash);
+        return new UTXO(hash, random.nextInt(3));
+    }
+
+    /** Applies the same random updates to {@code pool} and a map, then compares the two */
+    private void assertBehavesLikeMap(UTXOPool pool) {
+        Map<UTXO, Transaction.Output> expected = new HashMap<>();
+        List<UTXO> added = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            if (added.isEmpty() || random.nextInt(3) > 0) {
+                UTXO utxo = randomUtxo();
+                Transaction.Output output = owner.new Output(i, addresses[random.nextInt(addresses.length)]);
+                pool.addUTXO(utxo, output);
+                expected.put(utxo, output);
+                added.add(utxo);
+            } else {
+                UTXO utxo = added.get(random.nextInt(added.size()));
+                pool.removeUTXO(utxo.getTxHash(), utxo.getIndex());
+                expected.remove(utxo);
+            }
+        }
+        Assert.assertEquals(expected.size(), pool.size());
+        for (UTXO utxo : added) {
+            Assert.assertEquals(expected.containsKey(utxo), pool.contains(utxo));
+            Assert.assertEquals(expected.get(utxo), pool.getTxOutput(utxo.getTxHash(), utxo.getIndex()));
+        }
+        Assert.assertEquals(expected.keySet(), new HashSet<>(pool.getAllUTXO()));
+    }
+
+    @Test
+    public void testPoolsBehaveLikeAMap() throws IOException {
+        assertBehavesLikeMap(new UTXOPool());
+        assertBehavesLikeMap(UTXOPool.compact());
+        assertBehavesLikeMap(UTXOPool.mapped(folder.getRoot().toPath()));
+    }
+
+    @Test
+    public void testCopiesAreIndependent() throws IOException {
+        for (UTXOPool pool : new UTXOPool[]{new UTXOPool(), UTXOPool.compact(), UTXOPool.mapped(folder.getRoot().toPath())}) {
+            UTXO kept = randomUtxo();
+            UTXO removed = randomUtxo();
+            pool.addUTXO(kept, owner.new Output(1, addresses[0]));
+            pool.addUTXO(removed, owner.new Output(2, addresses[1]));
+            UTXOPool copy = new UTXOPool(pool);
+            copy.removeUTXO(removed);
+            copy.addUTXO(randomUtxo(), owner.new Output(3, addresses[2]));
+            Assert.assertEquals(2, pool.size());
+            Assert.assertTrue(pool.contains(removed));
+            Assert.assertEquals(2, copy.size());
+            Assert.assertTrue(copy.contains(kept));
+            Assert.assertFalse(copy.contains(removed));
+        }
+    }
+
+    @Test
+    public void testMappedCopiesKeepTheirStateThroughChangesAndClose() throws IOException {
+        UTXOPool pool = UTXOPool.mapped(folder.getRoot().toPath());
+        Map<UTXO, Transaction.Output> expected = new HashMap<>();
+        for (int i = 0; i < 200; i++) {
+            UTXO utxo = randomUtxo();
+            Transaction.Output output = owner.new Output(i, addresses[i % addresses.length]);
+            pool.addUTXO(utxo, output);
+            expected.put(utxo, output);
+        }
+        UTXOPool copy = new UTXOPool(pool);
+        UTXOPool copyOfCopy = new UTXOPool(copy);
+        List<UTXO> utxos = new ArrayList<>(expected.keySet());
+        for (int i = 0; i < 50; i++)
+            pool.removeUTXO(utxos.get(i));
+        for (int i = 50; i < 100; i++)
+            pool.addUTXO(utxos.get(i), owner.new Output(-i, addresses[0]));
+        for (int i = 0; i < 50; i++)
+            pool.addUTXO(randomUtxo(), owner.new Output(i, addresses[1]));
+        copy.removeUTXO(utxos.get(100));
+
+        Assert.assertEquals(expected.size() - 1, copy.size());
+        Assert.assertFalse(copy.contains(utxos.get(100)));
+        Assert.assertEquals(expected.size(), copyOfCopy.size());
+        pool.close();
+        for (UTXOPool p : new UTXOPool[]{copyOfCopy, new UTXOPool(copyOfCopy)}) {
+            Assert.assertEquals(expected.keySet(), new HashSet<>(p.getAllUTXO()));
+            for (Map.Entry<UTXO, Transaction.Output> e : expected.entrySet())
+                Assert.assertEquals(e.getValue(), p.getTxOutput(e.getKey()));
+        }
+    }
+
+    @Test
+    public void testMappedPoolSurvivesReopen() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        UTXOPool pool = UTXOPool.mapped(dir);
+        Map<UTXO, Transaction.Output> expected = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            UTXO utxo = new UTXO(hash, i % 4);
+            Transaction.Output output = owner.new Output(i / 2.0, addresses[i % addresses.length]);
+            pool.addUTXO(utxo, output);
+            expected.put(utxo, output);
+        }
+        for (UTXO utxo : new ArrayList<>(expected.keySet()).subList(0, 1000)) {
+            pool.removeUTXO(utxo);
+            expected.remove(utxo);
+        }
+        pool.flush();
+
+        UTXOPool reopened = UTXOPool.mapped(dir);
+        Assert.assertEquals(expected.size(), reopened.size());
+        for (Map.Entry<UTXO, Transaction.Output> e : expected.entrySet())
+            Assert.assertEquals(e.getValue(), reopened.getTxOutput(e.getKey()));
+    }
+}
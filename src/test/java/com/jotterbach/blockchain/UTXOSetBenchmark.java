@@ -0,0 +1,79 @@
+package com.jotterbach.blockchain;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Fills a {@code HashMap<UTXO, Transaction.Output>}, the default {@link UTXOPool} and a
+ * {@link UTXOPool#compact()} pool with the same UTXOs (1M by default, or the number given as first
+ * argument) and prints the heap each of them retains and the cost of looking every UTXO up again.
+ * All UTXOs share one output, so only the set itself is measured. Run with {@code main}; 10M UTXOs
+ * need about {@code -Xmx4g}.
+ */
+public class UTXOSetBenchmark {
+
+    /** keeps the set under measurement reachable */
+    private static Object live;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        byte[][] hashes = new byte[n][];
+        Random random = new Random(42);
+        for (int i = 0; i < n; i++) {
+            hashes[i] = new byte[32];
+            random.nextBytes(hashes[i]);
+        }
+        Transaction.Output output = new Transaction().new Output(1, null);
+
+        measure("HashMap", n, () -> {
+            Map<UTXO, Transaction.Output> map = new HashMap<>();
+            for (int i = 0; i < n; i++)
+                map.put(new UTXO(hashes[i], i & 3), output);
+            return map;
+        }, map -> {
+            for (int i = 0; i < n; i++)
+                if (map.get(new UTXO(hashes[i], i & 3)) == null)
+                    throw new IllegalStateException();
+        });
+        measure("UTXOPool", n, () -> fill(new UTXOPool(), hashes, output), pool -> lookUp(pool, hashes));
+        measure("UTXOPool.compact", n, () -> fill(UTXOPool.compact(), hashes, output), pool -> lookUp(pool, hashes));
+    }
+
+    private static UTXOPool fill(UTXOPool pool, byte[][] hashes, Transaction.Output output) {
+        for (int i = 0; i < hashes.length; i++)
+            pool.addUTXO(new UTXO(hashes[i], i & 3), output);
+        return pool;
+    }
+
+    private static void lookUp(UTXOPool pool, byte[][] hashes) {
+        for (int i = 0; i < hashes.length; i++)
+            if (pool.getTxOutput(hashes[i], i & 3) == null)
+                throw new IllegalStateException();
+    }
+
+    private static <T> void measure(String name, int n, Supplier<T> build, Consumer<T> lookUp) {
+        long start = System.nanoTime();
+        T set = build.get();
+        live = set;
+        long buildNanos = System.nanoTime() - start;
+        long withSet = usedHeap();
+        start = System.nanoTime();
+        lookUp.accept(set);
+        long lookUpNanos = System.nanoTime() - start;
+        set = null;
+        live = null;
+        long retained = withSet - usedHeap();
+        System.out.printf("%-16s %6d MB retained (%5.1f bytes/UTXO), build %5d ms, lookups %4.0f ns each%n",
+                name, retained >> 20, (double) retained / n, buildNanos / 1_000_000, (double) lookUpNanos / n);
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,56 @@
+package com.jotterbach.trustconsensus;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Runs the same network once per {@link Adversary} kind and once with all of them mixed, and
+ * prints the rounds per second, the heap in use once all rounds are done and the share of
+ * compliant nodes whose consensus is the same as that of the first compliant node. A run with all
+ * kinds mixed warms up first. The number of nodes is the first argument (2000 by default). Run
+ * with {@code main}.
+ */
+public class AdversaryBenchmark {
+
+    private static final double P_GRAPH = .05;
+    private static final double P_MALICIOUS = .3;
+    private static final double P_TX_DISTRIBUTION = .05;
+    private static final int NUM_ROUNDS = 10;
+    private static final long SEED = 42;
+
+    public static void main(String[] args) throws InterruptedException {
+        int numNodes = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        Map<Adversary, Double> mixed = Adversary.parseMix("SILENT=1,FLIP_FLOP=1,SYBIL=1,SELECTIVE_FORWARDING=1");
+        new Simulation(numNodes, P_GRAPH, P_MALICIOUS, P_TX_DISTRIBUTION, NUM_ROUNDS, SEED, numThreads, mixed).run();
+        for (Adversary kind : Adversary.values())
+            measure(kind.name(), Adversary.parseMix(kind + "=1"), numNodes, numThreads);
+        measure("MIXED", mixed, numNodes, numThreads);
+    }
+
+    private static void measure(String name, Map<Adversary, Double> mix, int numNodes, int numThreads)
+            throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        System.gc();
+        Simulation simulation = new Simulation(numNodes, P_GRAPH, P_MALICIOUS, P_TX_DISTRIBUTION, NUM_ROUNDS,
+                SEED, numThreads, mix);
+        simulation.run();
+        System.gc();
+        long heap = rt.totalMemory() - rt.freeMemory();
+
+        int compliant = 0, agreeing = 0;
+        int[] reference = null;
+        for (int i = 0; i < numNodes; i++) {
+            if (simulation.isMalicious(i))
+                continue;
+            int[] consensus = simulation.getConsensusIds(i);
+            if (reference == null)
+                reference = consensus;
+            compliant++;
+            if (Arrays.equals(reference, consensus))
+                agreeing++;
+        }
+        System.out.printf("%-21s %7.2f rounds/s, heap used %7d KB, %5.1f%% agree%n", name,
+                simulation.getRoundsPerSecond(), heap >> 10, 100.0 * agreeing / Math.max(1, compliant));
+    }
+}
@@ -0,0 +1,58 @@
+package com.jotterbach.trustconsensus;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdversaryTest {
+
+    private static final Map<Adversary, Double> MIX = Adversary.parseMix("silent=1,FLIP_FLOP=1,SYBIL=1,selective_forwarding=1");
+
+    private static Simulation run(Map<Adversary, Double> mix, int numThreads) throws InterruptedException {
+        Simulation simulation = new Simulation(120, .2, .4, .05, 10, 11, numThreads, mix);
+        simulation.run();
+        return simulation;
+    }
+
+    @Test
+    public void testParseMix() {
+        Assert.assertEquals(4, MIX.size());
+        Assert.assertEquals(1, MIX.get(Adversary.SELECTIVE_FORWARDING), 0);
+        Assert.assertEquals(Adversary.silent(), Adversary.parseMix("SILENT=1"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseMixRejectsUnknownKinds() {
+        Adversary.parseMix("BYZANTINE=1");
+    }
+
+    @Test
+    public void testMixedAdversariesAreDeterministic() throws InterruptedException {
+        Simulation single = run(MIX, 1);
+        Simulation parallel = run(MIX, 4);
+        for (int i = 0; i < single.getNumNodes(); i++) {
+            Assert.assertEquals(single.isMalicious(i), parallel.isMalicious(i));
+            Assert.assertArrayEquals(single.getConsensusIds(i), parallel.getConsensusIds(i));
+        }
+    }
+
+    @Test
+    public void testSybilFloodsAreDeliveredAndConsensusHasNoDuplicates() throws InterruptedException {
+        Simulation simulation = run(Adversary.parseMix("SYBIL=1"), 2);
+        int sybils = 0;
+        for (int i = 0; i < simulation.getNumNodes(); i++) {
+            if (simulation.isMalicious(i)) {
+                // every round but possibly the first, when it may not have heard anything yet
+                Assert.assertTrue(simulation.getNumProposed(i) >= 9L * SybilNode.FLOOD_SIZE);
+                sybils++;
+            } else {
+                int[] consensus = simulation.getConsensusIds(i);
+                Assert.assertTrue(consensus.length <= simulation.getNumDistributedTx());
+                for (int k = 1; k < consensus.length; k++)
+                    Assert.assertTrue(consensus[k - 1] < consensus[k]);
+            }
+        }
+        Assert.assertTrue(sybils > 0);
+    }
+}
@@ -0,0 +1,39 @@
+package com.jotterbach.trustconsensus;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FollowGraphTest {
+
+    @Test
+    public void testEdgesAreSortedWithoutSelfLoopsAndMatchDensity() {
+        int numNodes = 2000;
+        FollowGraph graph = new FollowGraph(numNodes, .05, new Random(1));
+        long edges = 0;
+        for (int i = 0; i < numNodes; i++) {
+            int[] followees = graph.followees(i);
+            Assert.assertEquals(graph.numFollowees(i), followees.length);
+            for (int k = 0; k < followees.length; k++) {
+                Assert.assertNotEquals(i, followees[k]);
+                Assert.assertTrue(k == 0 || followees[k - 1] < followees[k]);
+                Assert.assertTrue(graph.follows(i, followees[k]));
+            }
+            edges += followees.length;
+        }
+        double density = (double) edges / ((long) numNodes * (numNodes - 1));
+        Assert.assertEquals(.05, density, .002);
+        Assert.assertFalse(graph.follows(0, 0));
+    }
+
+    @Test
+    public void testEmptyAndCompleteGraphs() {
+        FollowGraph empty = new FollowGraph(50, 0, new Random(1));
+        FollowGraph complete = new FollowGraph(50, 1, new Random(1));
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals(0, empty.numFollowees(i));
+            Assert.assertEquals(49, complete.numFollowees(i));
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.jotterbach.trustconsensus;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IntSetTest {
+
+    @Test
+    public void testMatchesHashSetIncludingZero() {
+        Random random = new Random(3);
+        IntSet set = new IntSet();
+        Set<Integer> expected = new HashSet<>();
+        for (int i = 0; i < 5000; i++) {
+            int key = i % 7 == 0 ? 0 : random.nextInt(2000) - 1000;
+            Assert.assertEquals(expected.add(key), set.add(key));
+        }
+        Assert.assertEquals(expected.size(), set.size());
+        for (int key = -1100; key < 1100; key++)
+            Assert.assertEquals(expected.contains(key), set.contains(key));
+
+        int[] sorted = set.toSortedArray();
+        Assert.assertEquals(expected.size(), sorted.length);
+        for (int i = 1; i < sorted.length; i++)
+            Assert.assertTrue(sorted[i - 1] < sorted[i]);
+
+        set.clear();
+        Assert.assertEquals(0, set.size());
+        Assert.assertFalse(set.contains(0));
+        Assert.assertArrayEquals(new int[0], set.toSortedArray());
+        Assert.assertTrue(set.add(Integer.MIN_VALUE));
+        Assert.assertTrue(set.contains(Integer.MIN_VALUE));
+    }
+
+    @Test
+    public void testPackedCandidatesRoundTrip() {
+        long packed = Candidate.pack(99_999, -5);
+        Assert.assertEquals(99_999, Candidate.sender(packed));
+        Assert.assertEquals(-5, Candidate.txId(packed));
+        Assert.assertEquals(Integer.MIN_VALUE, Candidate.txId(Candidate.pack(0, Integer.MIN_VALUE)));
+    }
+}
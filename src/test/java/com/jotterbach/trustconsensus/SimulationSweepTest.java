@@ -0,0 +1,37 @@
+package com.jotterbach.trustconsensus;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SimulationSweepTest {
+
+    /** @return {@code line} without its last column, the timing */
+    private static String withoutMillis(String line) {
+        return line.substring(0, line.lastIndexOf(','));
+    }
+
+    @Test
+    public void testSweepCoversEveryConfigurationDeterministically() throws InterruptedException {
+        List<String> lines = SimulationSweep.sweep(30, 2, 4);
+        Assert.assertEquals(54 * 2, lines.size());
+        List<String> again = SimulationSweep.sweep(30, 2, 1);
+        for (int i = 0; i < lines.size(); i++) {
+            Assert.assertEquals(withoutMillis(lines.get(i)), withoutMillis(again.get(i)));
+            Assert.assertEquals(SimulationSweep.HEADER.split(",").length, lines.get(i).split(",").length);
+        }
+        Assert.assertTrue(lines.get(0).startsWith("0.10,0.15,0.01,10,0,"));
+        Assert.assertTrue(lines.get(lines.size() - 1).startsWith("0.30,0.45,0.10,20,1,"));
+    }
+
+    @Test
+    public void testCompliantNetworkAgreesOnEverything() throws InterruptedException {
+        String[] columns = SimulationSweep.run(50, .3, 0, .05, 10, 7).split(",");
+        Assert.assertEquals("50", columns[5]);
+        Assert.assertEquals(1, Double.parseDouble(columns[6]), 0);
+        Assert.assertEquals(1, Double.parseDouble(columns[7]), 0);
+        int rounds = Integer.parseInt(columns[8]);
+        Assert.assertTrue(rounds > 0 && rounds < 10);
+    }
+}
@@ -0,0 +1,29 @@
+package com.jotterbach.trustconsensus;
+
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SimulationTest {
+
+    private static Simulation run(long seed, int numThreads) throws InterruptedException {
+        Simulation simulation = new Simulation(200, .1, .3, .05, 10, seed, numThreads);
+        simulation.run();
+        return simulation;
+    }
+
+    @Test
+    public void testSameSeedSameConsensusOnAnyNumberOfThreads() throws InterruptedException {
+        Simulation single = run(42, 1);
+        Simulation parallel = run(42, 4);
+        Assert.assertTrue(single.getRoundsPerSecond() > 0);
+        boolean anyConsensus = false;
+        for (int i = 0; i < single.getNumNodes(); i++) {
+            Set<Transaction> consensus = single.getConsensus(i);
+            Assert.assertEquals(consensus, parallel.getConsensus(i));
+            anyConsensus |= !consensus.isEmpty();
+        }
+        Assert.assertTrue(anyConsensus);
+    }
+}